@@ -34,7 +34,7 @@ public class Communicator {
             Updater updater = injector.getInstance(Updater.class);
             UI ui = injector.getInstance(UI.class);
             ui.addListener(updater.getButtonListener());
-            ui.addListener(injector.getInstance(UserInputHandler.class));
+            ui.addAsyncListener(injector.getInstance(UserInputHandler.class)); // repaints, keep it off the button thread
         } catch (Exception e) {
             e.printStackTrace();
         }
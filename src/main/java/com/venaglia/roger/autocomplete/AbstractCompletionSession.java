@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the text of each append, so it can be taken back, and works out the deltas. Subclasses follow the text a
+ * character at a time.
+ */
+public abstract class AbstractCompletionSession implements CompletionSession {
+
+    private int[] appendEnds = new int[16]; // the length of the text after the first n appends
+    private int appends = 0;
+    private List<String> suggestions = Collections.emptyList();
+
+    @Override
+    public final SuggestionDelta append(CharSequence text) {
+        for (int i = 0, l = text.length(); i < l; i++) {
+            appendChar(text.charAt(i));
+        }
+        if (++appends == appendEnds.length) {
+            appendEnds = Arrays.copyOf(appendEnds, appends * 2);
+        }
+        appendEnds[appends] = appendEnds[appends - 1] + text.length();
+        return update();
+    }
+
+    @Override
+    public final SuggestionDelta backspace() {
+        if (appends == 0) {
+            return SuggestionDelta.NONE;
+        }
+        truncate(appendEnds[--appends]);
+        return update();
+    }
+
+    @Override
+    public final SuggestionDelta clear() {
+        appends = 0;
+        truncate(0);
+        return update();
+    }
+
+    @Override
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+
+    private SuggestionDelta update() {
+        List<String> next = suggest();
+        if (next == null) {
+            return SuggestionDelta.NONE;
+        }
+        SuggestionDelta delta = SuggestionDelta.between(suggestions, next);
+        suggestions = Collections.unmodifiableList(next);
+        return delta;
+    }
+
+    protected abstract void appendChar(char c);
+
+    /**
+     * Deletes characters from the end, keeping the first {@code length} appended.
+     */
+    protected abstract void truncate(int length);
+
+    /**
+     * @return The suggestions for the text so far, best first, or null if they can't have changed.
+     */
+    protected abstract List<String> suggest();
+}
@@ -27,5 +27,19 @@ public interface AutoCompleter {
 
     Set<CompletablePart> suggest(List<CompletablePart> lastFewParts, int limit);
 
-    Set<String> suggestWord(String stringSoFar);
+    default Set<String> suggestWord(String stringSoFar) {
+        return suggestWord(stringSoFar, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return At most {@code limit} words, the closest matches first.
+     */
+    Set<String> suggestWord(String stringSoFar, int limit);
+
+    /**
+     * Starts following text as it is typed, suggesting at most {@code limit} words as {@link #suggestWord} would.
+     */
+    default CompletionSession startSession(int limit) {
+        return new RecomputingSession(this, limit);
+    }
 }
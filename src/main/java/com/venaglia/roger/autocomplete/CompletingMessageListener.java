@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete;
+
+import com.venaglia.roger.output.ActiveMessageListener;
+import com.venaglia.roger.output.ArchivedMessage;
+import com.venaglia.roger.output.OutputElement;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Drives a {@link CompletionSession} from the changes to an active message, passing on each delta that isn't empty.
+ * Anything that isn't text, such as an image, is taken as a word break.
+ */
+public class CompletingMessageListener implements ActiveMessageListener {
+
+    private final CompletionSession session;
+    private final Consumer<SuggestionDelta> deltas;
+    private final Deque<String> appended = new ArrayDeque<>(); // the message doesn't say what an undo took back
+    private final Deque<String> undone = new ArrayDeque<>();
+
+    public CompletingMessageListener(CompletionSession session, Consumer<SuggestionDelta> deltas) {
+        assert session != null;
+        assert deltas != null;
+        this.session = session;
+        this.deltas = deltas;
+    }
+
+    @Override
+    public void afterAppend(OutputElement<?> element) {
+        String text = textOf(element);
+        appended.push(text);
+        undone.clear();
+        fire(session.append(text));
+    }
+
+    @Override
+    public void afterUndo() {
+        if (!appended.isEmpty()) {
+            undone.push(appended.pop());
+            fire(session.backspace());
+        }
+    }
+
+    @Override
+    public void afterRedo() {
+        if (!undone.isEmpty()) {
+            String text = undone.pop();
+            appended.push(text);
+            fire(session.append(text));
+        }
+    }
+
+    @Override
+    public void afterArchive(ArchivedMessage message) {
+        appended.clear();
+        undone.clear();
+        fire(session.clear());
+    }
+
+    private void fire(SuggestionDelta delta) {
+        if (!delta.isEmpty()) {
+            deltas.accept(delta);
+        }
+    }
+
+    private static String textOf(OutputElement<?> element) {
+        String text = element.getElementType().isText() ? element.asString() : null;
+        return text == null || text.isEmpty() ? " " : text; // a space is a char element with no text
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete;
+
+import java.util.List;
+
+/**
+ * Follows text as it is typed, keeping the suggestions for it up to date. Each change returns how the suggestions
+ * changed, rather than all of them. Sessions are not thread safe, changes should come from one thread.
+ */
+public interface CompletionSession {
+
+    SuggestionDelta append(CharSequence text);
+
+    /**
+     * Removes the text added by the last append, like {@link com.venaglia.roger.output.ActiveMessage#undo()}.
+     */
+    SuggestionDelta backspace();
+
+    SuggestionDelta clear();
+
+    /**
+     * @return The suggestions for the text so far, best first.
+     */
+    List<String> getSuggestions();
+}
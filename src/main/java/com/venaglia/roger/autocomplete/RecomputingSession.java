@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Asks for suggestions for all of the text on each change, for auto completers that can't do better.
+ */
+class RecomputingSession extends AbstractCompletionSession {
+
+    private final AutoCompleter autoCompleter;
+    private final int limit;
+    private final StringBuilder text = new StringBuilder();
+
+    RecomputingSession(AutoCompleter autoCompleter, int limit) {
+        this.autoCompleter = autoCompleter;
+        this.limit = limit;
+    }
+
+    @Override
+    protected void appendChar(char c) {
+        text.append(c);
+    }
+
+    @Override
+    protected void truncate(int length) {
+        text.setLength(length);
+    }
+
+    @Override
+    protected List<String> suggest() {
+        return new ArrayList<>(autoCompleter.suggestWord(text.toString(), limit));
+    }
+}
@@ -40,4 +40,106 @@ public interface Reducer {
     ));
 
     String reduce(String word);
+
+    /**
+     * @return A name that changes whenever the reducer would reduce some word differently.
+     */
+    default String getVersion() {
+        return getClass().getName();
+    }
+
+    /**
+     * Appends the reduced word to a buffer, which can be reused from one word to the next.
+     */
+    default void reduce(CharSequence word, StringBuilder into) {
+        into.append(reduce(word.toString()));
+    }
+
+    /**
+     * @return A reduction of text that is kept up to date as characters are typed and deleted.
+     */
+    default Incremental incremental() {
+        return new Recomputing(this);
+    }
+
+    /**
+     * The reduction of text being typed. Words in the reduction are separated by spaces, and it may end with one.
+     */
+    interface Incremental {
+
+        void append(char c);
+
+        /**
+         * Deletes characters from the end, keeping the first {@code length} appended.
+         */
+        void truncate(int length);
+
+        /**
+         * @return The reduction so far, valid until the next change.
+         */
+        CharSequence getReduced();
+
+        /**
+         * @return How many characters at the start of the reduction were left as they were by the last change.
+         */
+        int getUnchanged();
+
+        /**
+         * @return Where the reduction of the last word ends, not counting a break after it.
+         */
+        int getLastWordEnd();
+    }
+
+    /**
+     * Reduces all of the text again on every change, for reducers that can't do better.
+     */
+    final class Recomputing implements Incremental {
+
+        private final Reducer reducer;
+        private final StringBuilder text = new StringBuilder();
+
+        private String reduced = "";
+        private int unchanged = 0;
+
+        public Recomputing(Reducer reducer) {
+            this.reducer = reducer;
+        }
+
+        @Override
+        public void append(char c) {
+            text.append(c);
+            update();
+        }
+
+        @Override
+        public void truncate(int length) {
+            text.setLength(length);
+            update();
+        }
+
+        private void update() {
+            String next = reducer.reduce(IDENTITY.reduce(text.toString()));
+            int same = 0;
+            while (same < next.length() && same < reduced.length() && next.charAt(same) == reduced.charAt(same)) {
+                same++;
+            }
+            reduced = next;
+            unchanged = same;
+        }
+
+        @Override
+        public CharSequence getReduced() {
+            return reduced;
+        }
+
+        @Override
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public int getLastWordEnd() {
+            return reduced.length();
+        }
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * How the suggestions of a {@link CompletionSession} changed.
+ */
+public final class SuggestionDelta {
+
+    public static final SuggestionDelta NONE =
+            new SuggestionDelta(Collections.emptyList(), Collections.emptySet(), false);
+
+    private final List<String> added;
+    private final Set<String> removed;
+    private final boolean reordered;
+
+    private SuggestionDelta(List<String> added, Set<String> removed, boolean reordered) {
+        this.added = added;
+        this.removed = removed;
+        this.reordered = reordered;
+    }
+
+    static SuggestionDelta between(List<String> before, List<String> after) {
+        Set<String> was = new HashSet<>(before);
+        Set<String> is = new HashSet<>(after);
+        List<String> added = new ArrayList<>();
+        List<String> kept = new ArrayList<>();
+        for (String word : after) {
+            (was.contains(word) ? kept : added).add(word);
+        }
+        Set<String> removed = new LinkedHashSet<>();
+        int k = 0;
+        boolean reordered = false;
+        for (String word : before) {
+            if (!is.contains(word)) {
+                removed.add(word);
+            } else if (!word.equals(kept.get(k++))) {
+                reordered = true;
+            }
+        }
+        if (added.isEmpty() && removed.isEmpty() && !reordered) {
+            return NONE;
+        }
+        return new SuggestionDelta(Collections.unmodifiableList(added), Collections.unmodifiableSet(removed), reordered);
+    }
+
+    /**
+     * @return The new suggestions, best first.
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the suggestions that were kept are now in a different order.
+     */
+    public boolean isReordered() {
+        return reordered;
+    }
+
+    public boolean isEmpty() {
+        return this == NONE;
+    }
+
+    @Override
+    public String toString() {
+        return "+" + added + " -" + removed + (reordered ? " reordered" : "");
+    }
+}
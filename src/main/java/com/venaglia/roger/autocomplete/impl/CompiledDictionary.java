@@ -0,0 +1,336 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete.impl;
+
+import com.venaglia.roger.autocomplete.Reducer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * A dictionary in the binary form written by {@link DictionaryCompiler}, read in place from a mapped file without an
+ * object per word. The text dictionary in a bundle is compiled into the same form the first time the bundle is used.
+ *
+ * <p>The header names what the dictionary was compiled from and the versions of the reducers its forms were derived
+ * with, so a file left over from another bundle or older reducers can be told apart. After the header come the words,
+ * sorted by their UTF-8 bytes, as offsets into a string pool and frequencies; the postings, the numbers of the words
+ * each form was reduced from; the {@link PrefixIndex} over the forms, with how often the most used word under each
+ * node is used; and the string pool, where each word is a short length and its UTF-8 bytes.
+ */
+final class CompiledDictionary {
+
+    private static final int MAGIC = 0x52444334; // "RDC4"
+
+    /**
+     * The versions of the reducers in use, as written to the header of each compiled dictionary.
+     */
+    static final String REDUCERS = Reducer.ALL.stream().map(Reducer::getVersion).collect(Collectors.joining(","));
+
+    private final String source;
+    private final String reducers;
+    private final String name;
+    private final Set<Locale> languages;
+    private final IntBuffer wordOffsets;
+    private final IntBuffer frequencies;
+    private final IntBuffer postingStarts; // the postings of form n are postingStarts[n] until postingStarts[n + 1]
+    private final IntBuffer postings;
+    private final ByteBuffer pool;
+    private final PrefixIndex index;
+
+    CompiledDictionary(ByteBuffer buffer) throws IOException {
+        buffer = buffer.duplicate();
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a compiled dictionary");
+            }
+            int wordCount = buffer.getInt();
+            int formCount = buffer.getInt();
+            int nodeCount = buffer.getInt();
+            int postingCount = buffer.getInt();
+            int poolSize = buffer.getInt();
+            source = readString(buffer);
+            reducers = readString(buffer);
+            name = readString(buffer);
+            Set<Locale> languages = new LinkedHashSet<>();
+            for (int i = buffer.getShort(); i > 0; i--) {
+                languages.add(Locale.forLanguageTag(readString(buffer)));
+            }
+            this.languages = Collections.unmodifiableSet(languages);
+            wordOffsets = take(buffer, wordCount * 4).asIntBuffer();
+            frequencies = take(buffer, wordCount * 4).asIntBuffer();
+            postingStarts = take(buffer, (formCount + 1) * 4).asIntBuffer();
+            postings = take(buffer, postingCount * 4).asIntBuffer();
+            IntBuffer firstChild = take(buffer, (nodeCount + 1) * 4).asIntBuffer();
+            IntBuffer values = take(buffer, nodeCount * 4).asIntBuffer();
+            IntBuffer best = take(buffer, nodeCount * 4).asIntBuffer();
+            CharBuffer chars = take(buffer, nodeCount * 2).asCharBuffer();
+            pool = take(buffer, poolSize);
+            if (buffer.hasRemaining()) {
+                throw new IOException("Unexpected data after the string pool");
+            }
+            index = new PrefixIndex(chars, firstChild, values, best);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Truncated or corrupt dictionary", e);
+        }
+    }
+
+    /**
+     * Maps a compiled dictionary file. The mapping stays valid after the file is closed.
+     */
+    static CompiledDictionary map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new CompiledDictionary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Compiles a dictionary parsed from text into a heap buffer.
+     */
+    static CompiledDictionary compile(DictionaryTuple dictionary, String source) {
+        ByteBufferOutputStream buffer = new ByteBufferOutputStream();
+        try {
+            write(dictionary, source, buffer);
+            return new CompiledDictionary(buffer.toByteBuffer());
+        } catch (IOException e) {
+            throw new RuntimeException(e.getMessage(), e); // nothing to fail on in memory
+        }
+    }
+
+    /**
+     * Compiles a dictionary parsed from text into a file.
+     *
+     * @param source Names what the dictionary was parsed from, to be checked when the file is mapped again.
+     */
+    static void write(DictionaryTuple dictionary, String source, File file) throws IOException {
+        File tmpFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmpFile), 65536)) {
+            write(dictionary, source, out);
+        } catch (IOException e) {
+            if (!tmpFile.delete()) {
+                tmpFile.deleteOnExit();
+            }
+            throw e;
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Failed to rename temp file to final filename: " + tmpFile + " -> " + file);
+        }
+    }
+
+    private static void write(DictionaryTuple dictionary, String source, OutputStream stream) throws IOException {
+        Map<String,byte[]> utf8 = new HashMap<>();
+        for (String[] words : dictionary.getAutocomplete().values()) {
+            for (String word : words) {
+                utf8.computeIfAbsent(word, w -> w.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        List<String> words = new ArrayList<>(utf8.keySet());
+        words.sort((a, b) -> compare(utf8.get(a), utf8.get(b)));
+        Map<String,Integer> wordNumbers = new HashMap<>(words.size() * 2);
+        int poolSize = 0;
+        for (String word : words) {
+            wordNumbers.put(word, wordNumbers.size());
+            poolSize += 2 + utf8.get(word).length;
+        }
+        int postingCount = 0;
+        for (String[] wordsOfForm : dictionary.getAutocomplete().values()) {
+            postingCount += wordsOfForm.length;
+        }
+        int[] formFrequencies = new int[dictionary.getAutocomplete().size()];
+        int form = 0;
+        for (String[] wordsOfForm : dictionary.getAutocomplete().values()) {
+            for (String word : wordsOfForm) {
+                formFrequencies[form] = Math.max(formFrequencies[form], dictionary.getFrequency(word));
+            }
+            form++;
+        }
+        PrefixIndex index = new PrefixIndex(dictionary.getAutocomplete(), f -> formFrequencies[f]);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(words.size());
+        out.writeInt(dictionary.getAutocomplete().size());
+        out.writeInt(index.size());
+        out.writeInt(postingCount);
+        out.writeInt(poolSize);
+        writeString(out, source);
+        writeString(out, REDUCERS);
+        writeString(out, dictionary.getName());
+        out.writeShort(dictionary.getLanguages().size());
+        for (Locale language : dictionary.getLanguages()) {
+            writeString(out, language.toLanguageTag());
+        }
+        for (int i = 0, offset = 0; i < words.size(); i++) {
+            out.writeInt(offset);
+            offset += 2 + utf8.get(words.get(i)).length;
+        }
+        for (String word : words) {
+            out.writeInt(dictionary.getFrequency(word));
+        }
+        int start = 0;
+        for (String[] wordsOfForm : dictionary.getAutocomplete().values()) {
+            out.writeInt(start);
+            start += wordsOfForm.length;
+        }
+        out.writeInt(start);
+        for (String[] wordsOfForm : dictionary.getAutocomplete().values()) {
+            for (String word : wordsOfForm) {
+                out.writeInt(wordNumbers.get(word));
+            }
+        }
+        for (IntBuffer firstChild = index.firstChild(); firstChild.hasRemaining(); ) {
+            out.writeInt(firstChild.get());
+        }
+        for (IntBuffer values = index.values(); values.hasRemaining(); ) {
+            out.writeInt(values.get());
+        }
+        for (IntBuffer best = index.best(); best.hasRemaining(); ) {
+            out.writeInt(best.get());
+        }
+        for (CharBuffer chars = index.chars(); chars.hasRemaining(); ) {
+            out.writeChar(chars.get());
+        }
+        for (String word : words) {
+            byte[] bytes = utf8.get(word);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+        out.flush();
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    /**
+     * @return True if the forms were derived with the reducers in use now.
+     */
+    boolean hasCurrentReducers() {
+        return REDUCERS.equals(reducers);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Set<Locale> getLanguages() {
+        return languages;
+    }
+
+    int getWordCount() {
+        return wordOffsets.limit();
+    }
+
+    int getFormCount() {
+        return postingStarts.limit() - 1;
+    }
+
+    PrefixIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return How often the word with the number is used.
+     */
+    int getFrequency(int word) {
+        return frequencies.get(word);
+    }
+
+    /**
+     * Passes the number of each word the form was reduced from to the consumer.
+     */
+    void forEachWord(int form, IntConsumer consumer) {
+        for (int i = postingStarts.get(form), l = postingStarts.get(form + 1); i < l; i++) {
+            consumer.accept(postings.get(i));
+        }
+    }
+
+    /**
+     * Decodes the word with the number from the string pool.
+     */
+    String getWord(int number) {
+        int offset = wordOffsets.get(number);
+        byte[] bytes = new byte[pool.getShort(offset) & 0xFFFF];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = pool.get(offset + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0, l = Math.min(a.length, b.length); i < l; i++) {
+            int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    private static ByteBuffer take(ByteBuffer buffer, int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class ByteBufferOutputStream extends ByteArrayOutputStream {
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count).slice(); // no copy
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete.impl;
+
+import com.venaglia.roger.autocomplete.Reducer;
+import com.venaglia.roger.bundle.Bundle;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Offline tool that derives the reduced forms of a word list for autocomplete, and compiles dictionaries into the
+ * binary form read by {@link CompiledDictionary}. The dictionary in a bundle is compiled the first time the bundle is
+ * used, run with {@code -bundle} when deploying a bundle to have it ready. Point {@code con.dictionary.file} at a
+ * dictionary compiled from a word list to use it instead.
+ *
+ * <pre>
+ *   DictionaryCompiler words.txt forms.txt          derives the forms of a word list, as text
+ *   DictionaryCompiler words.txt en.dict [iso639]   derives the forms of a word list, compiled
+ *   DictionaryCompiler -bundle [all.dict]           compiles the text dictionaries in the bundle in bundle.dir
+ * </pre>
+ *
+ * Word lists have a word on each line, optionally followed by a tab and how often it is used.
+ */
+public class DictionaryCompiler {
+
+    public static void main(String[] args) throws IOException {
+        if ((args.length == 1 || args.length == 2) && args[0].equals("-bundle")) {
+            DictionaryLoader loader = new DictionaryLoader(new Bundle());
+            File file = args.length == 2 ? new File(args[1]) : loader.getCompiledFile();
+            write(loader.loadSource(), loader.getBundleSource(), file);
+        } else if (args.length == 2 || args.length == 3) {
+            Map<String,Integer> frequencies = readWords(new File(args[0]));
+            NavigableMap<String,String[]> wordsByReducedForm = train(frequencies.keySet(), Reducer.ALL);
+            System.out.printf("Derived %d forms for %d words\n", wordsByReducedForm.size(), frequencies.size());
+            if (args[1].endsWith(".dict")) {
+                NavigableSet<String> words = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                words.addAll(frequencies.keySet());
+                Locale language = new Locale(args.length == 3 ? args[2] : "en");
+                write(new DictionaryTuple(new File(args[0]).getName(),
+                                          Collections.singleton(language),
+                                          words,
+                                          wordsByReducedForm,
+                                          new TreeMap<>(),
+                                          frequencies),
+                      "words:" + new File(args[0]).getName(),
+                      new File(args[1]));
+            } else {
+                writeForms(wordsByReducedForm, frequencies, new File(args[1]));
+            }
+        } else {
+            System.err.println("usage: DictionaryCompiler <words.txt> <forms.txt | out.dict [iso639]>");
+            System.err.println("       DictionaryCompiler -bundle [out.dict]");
+        }
+    }
+
+    private static Map<String,Integer> readWords(File file) throws IOException {
+        Map<String,Integer> frequencies = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                int tab = line.indexOf('\t');
+                String word = tab < 0 ? line : line.substring(0, tab);
+                int frequency = tab < 0 ? 0 : Integer.parseInt(line.substring(tab + 1).trim());
+                frequencies.merge(word, frequency, Math::max);
+            }
+        }
+        return frequencies;
+    }
+
+    static NavigableMap<String,String[]> train(Collection<String> words, Collection<Reducer> reducers) {
+        TreeMap<String,String[]> wordsByReducedForm = new TreeMap<>();
+        for (Reducer reducer : reducers) {
+            for (String word : words) {
+                String form = reducer.reduce(word);
+                String[] options = wordsByReducedForm.get(form);
+                if (options == null) {
+                    options = new String[]{ word };
+                    wordsByReducedForm.put(form, options);
+                } else if (!options[options.length - 1].equals(word)) {
+                    String[] tmp = new String[options.length + 1];
+                    System.arraycopy(options, 0, tmp, 0, options.length);
+                    tmp[options.length] = word;
+                    wordsByReducedForm.put(form, tmp);
+                }
+            }
+        }
+        return wordsByReducedForm;
+    }
+
+    private static void writeForms(NavigableMap<String,String[]> wordsByReducedForm,
+                                   Map<String,Integer> frequencies,
+                                   File file) throws IOException {
+        boolean hasFrequencies = frequencies.values().stream().anyMatch(f -> f > 0);
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            for (Map.Entry<String,String[]> entry : wordsByReducedForm.entrySet()) {
+                out.print(entry.getKey());
+                out.print(';');
+                out.print(String.join(",", entry.getValue()));
+                if (hasFrequencies) {
+                    out.print(';');
+                    for (int i = 0; i < entry.getValue().length; i++) {
+                        out.print(i == 0 ? "" : ",");
+                        out.print(frequencies.get(entry.getValue()[i]));
+                    }
+                }
+                out.println();
+            }
+        }
+    }
+
+    private static void write(DictionaryTuple dictionary, String source, File file) throws IOException {
+        CompiledDictionary.write(dictionary, source, file);
+        CompiledDictionary compiled = CompiledDictionary.map(file);
+        System.out.printf("Compiled %d words (%d forms for autocomplete) into %s, %d bytes\n",
+                          compiled.getWordCount(),
+                          compiled.getFormCount(),
+                          file,
+                          file.length());
+    }
+}
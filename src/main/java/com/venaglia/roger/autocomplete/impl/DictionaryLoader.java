@@ -20,6 +20,8 @@ package com.venaglia.roger.autocomplete.impl;
 import com.venaglia.roger.bundle.AbstractLoader;
 import com.venaglia.roger.bundle.Bundle;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -32,27 +34,118 @@ import java.util.regex.Pattern;
 /**
  * Created by ed on 2/2/17.
  */
-public class DictionaryLoader extends AbstractLoader<DictionaryTuple> {
+public class DictionaryLoader extends AbstractLoader<CompiledDictionary> {
 
     private final String source = "dictionary.txt";
 
+    public DictionaryLoader() {
+    }
+
+    DictionaryLoader(Bundle bundle) {
+        this.bundle = bundle;
+    }
+
+    /**
+     * Maps the dictionary compiled from the bundle in use, first compiling it from the text dictionary if it is
+     * missing or was compiled from something else. {@code con.dictionary.file} names a dictionary compiled by
+     * {@link DictionaryCompiler} to use instead, as long as it is current.
+     */
     @Override
-    protected DictionaryTuple load() {
+    protected CompiledDictionary load() {
+        if (bundle == null || !Boolean.parseBoolean(System.getProperty("con.dictionary.cache", "true"))) {
+            return CompiledDictionary.compile(loadSource(), source);
+        }
+        String bundleSource = getBundleSource();
+        String compiled = System.getProperty("con.dictionary.file");
+        if (compiled != null && compiled.length() > 0) {
+            CompiledDictionary dictionary = open(new File(compiled), bundleSource, true);
+            if (dictionary != null) {
+                return dictionary;
+            }
+        }
+        File file = getCompiledFile();
+        CompiledDictionary dictionary = file.exists() ? open(file, bundleSource, false) : null;
+        if (dictionary != null) {
+            return dictionary;
+        }
+        DictionaryTuple tuple = loadSource();
+        try {
+            CompiledDictionary.write(tuple, bundleSource, file);
+            deleteStale(file);
+            return CompiledDictionary.map(file);
+        } catch (IOException e) {
+            e.printStackTrace(); // compiled in memory instead
+        }
+        return CompiledDictionary.compile(tuple, bundleSource);
+    }
+
+    /**
+     * @return What a dictionary compiled from the text dictionary in the bundle in use is compiled from.
+     */
+    String getBundleSource() {
+        return "bundle:" + bundle.getId();
+    }
+
+    /**
+     * @return Where the dictionary compiled from the bundle in use is kept.
+     */
+    File getCompiledFile() {
+        File dir = new File(System.getProperty("con.dictionary.dir", System.getProperty("bundle.dir", ".")));
+        return new File(dir, String.format("dictionary-%s.dict", bundle.getId()));
+    }
+
+    /**
+     * @return The mapped dictionary, or null if it can't be read or isn't current.
+     */
+    private CompiledDictionary open(File file, String bundleSource, boolean wordListsToo) {
+        try {
+            CompiledDictionary dictionary = CompiledDictionary.map(file);
+            String source = dictionary.getSource();
+            // one compiled from a word list stands in for any bundle's dictionary, one from a bundle only its own
+            boolean sameSource = source.equals(bundleSource) || wordListsToo && !source.startsWith("bundle:");
+            if (sameSource && dictionary.hasCurrentReducers()) {
+                return dictionary;
+            }
+            System.err.printf("Not using %s, compiled from %s, it is out of date\n", file, source);
+        } catch (IOException e) {
+            System.err.println("Unable to load " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private void deleteStale(File file) {
+        // dictionaries compiled from earlier bundles won't be used again
+        File[] stale = file.getAbsoluteFile().getParentFile().listFiles((dir, name) -> {
+            return name.matches("dictionary-[0-9a-f]+\\.dict") && !name.equals(file.getName());
+        });
+        for (File f : stale == null ? new File[0] : stale) {
+            if (!f.delete()) {
+                System.err.println("Unable to delete stale dictionary: " + f);
+            }
+        }
+    }
+
+    /**
+     * Parses the text dictionary in the bundle.
+     */
+    DictionaryTuple loadSource() {
         Reader in = new InputStreamReader(getStream(source), StandardCharsets.UTF_8);
         List<String> names = new ArrayList<>();
         NavigableSet<String> words = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
         Set<Locale> languages = new LinkedHashSet<>();
         NavigableMap<String,String[]> autocomplete = new TreeMap<>();
         NavigableMap<String,String[]> phrases = new TreeMap<>();
+        Map<String,Integer> frequencies = new HashMap<>();
         parseDictionaryFile((dt) -> {
             names.add(dt.getName());
             languages.addAll(dt.getLanguages());
             words.addAll(dt.getWords());
             merge(dt.getAutocomplete(), autocomplete);
+            dt.getFrequencies().forEach((word, frequency) -> frequencies.merge(word, frequency, Math::max));
             // todo: phrases
         }, readString(in));
         String name = String.format("Composite(%s)", String.join(", ", names));
-        return new DictionaryTuple(name, languages, words, autocomplete, phrases);
+        return new DictionaryTuple(name, languages, words, autocomplete, phrases, frequencies);
     }
 
     private void merge(Map<String,String[]> from, Map<String,String[]> accum) {
@@ -117,7 +210,8 @@ public class DictionaryLoader extends AbstractLoader<DictionaryTuple> {
 
     private DictionaryTuple parseDictionary(Map<String,String> props) {
         Locale locale = new Locale(props.get("iso639"));
-        NavigableMap<String,String[]> autocomplete = parseWords(read(props.get("words")));
+        Map<String,Integer> frequencies = new HashMap<>();
+        NavigableMap<String,String[]> autocomplete = parseWords(props.get("words"), frequencies);
         if (autocomplete.isEmpty()) {
             return null;
         }
@@ -126,7 +220,12 @@ public class DictionaryLoader extends AbstractLoader<DictionaryTuple> {
             Collections.addAll(words, strings);
         }
 //        String[] phrases = read(props.get("phrases")); // todo: phrases
-        return new DictionaryTuple(props.get("name"), Collections.singleton(locale), words, autocomplete, new TreeMap<>());
+        return new DictionaryTuple(props.get("name"),
+                                   Collections.singleton(locale),
+                                   words,
+                                   autocomplete,
+                                   new TreeMap<>(),
+                                   frequencies);
     }
 
     private String[] read(String resource) {
@@ -134,26 +233,53 @@ public class DictionaryLoader extends AbstractLoader<DictionaryTuple> {
         return stream != null ? readLines(new InputStreamReader(stream, StandardCharsets.UTF_8)) : new String[0];
     }
 
-    private NavigableMap<String,String[]> parseWords(String[] lines) {
+    /**
+     * Reads lines of the form {@code form;word1,word2}, optionally followed by a frequency for each of the words, as
+     * in {@code form;word1,word2;120,7}.
+     */
+    private NavigableMap<String,String[]> parseWords(String resource, Map<String,Integer> frequencies) {
+        String[] lines = read(resource);
         TreeMap<String, String[]> result = new TreeMap<>();
-        for (String line : lines) {
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
             if (line.startsWith("#") || line.length() == 0) {
                 continue;
             }
-            String[] parts = line.split(";", 2);
-            if (parts.length == 2) {
-                result.put(parts[0], parts[1].split(","));
+            String[] parts = line.split(";", 3);
+            if (parts.length >= 2) {
+                String[] words = parts[1].split(",");
+                result.put(parts[0], words);
+                if (parts.length == 3) {
+                    parseFrequencies(parts[2].split(","), words, frequencies, resource, i + 1);
+                }
             }
         }
         return result;
     }
 
+    private void parseFrequencies(String[] counts,
+                                  String[] words,
+                                  Map<String,Integer> frequencies,
+                                  String resource,
+                                  int lineNumber) {
+        if (counts.length != words.length) {
+            System.err.printf("Frequencies don't match words in %s [line %d]\n", resource, lineNumber);
+        }
+        for (int j = 0, l = Math.min(counts.length, words.length); j < l; j++) {
+            try {
+                frequencies.merge(words[j], Math.max(0, Integer.parseInt(counts[j].trim())), Math::max);
+            } catch (NumberFormatException e) {
+                System.err.printf("Bad frequency in %s [line %d]: '%s'\n", resource, lineNumber, counts[j]);
+            }
+        }
+    }
+
     public static void main(String[] args) {
-        DictionaryLoader loader = new DictionaryLoader();
-        loader.bundle = new Bundle();
-        DictionaryTuple dt = loader.get();
-        System.out.printf("Loaded %d dictionaries: %s\n", dt.getLanguages().size(), dt.getLanguages());
-        System.out.printf("    containing %d words (%d forms for autocomplete)\n", dt.getWords().size(), dt.getAutocomplete().size());
-        System.out.printf("    containing %d phrases\n", dt.getPhrases().size());
+        DictionaryLoader loader = new DictionaryLoader(new Bundle());
+        CompiledDictionary dictionary = loader.get();
+        System.out.printf("Loaded %d dictionaries: %s\n", dictionary.getLanguages().size(), dictionary.getLanguages());
+        System.out.printf("    containing %d words (%d forms for autocomplete)\n",
+                          dictionary.getWordCount(),
+                          dictionary.getFormCount());
     }
 }
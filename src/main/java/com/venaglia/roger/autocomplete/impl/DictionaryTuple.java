@@ -20,6 +20,7 @@ package com.venaglia.roger.autocomplete.impl;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.NavigableMap;
 import java.util.NavigableSet;
 import java.util.Set;
@@ -34,17 +35,20 @@ class DictionaryTuple {
     private final NavigableMap<String,String[]> autocomplete;
     private final NavigableMap<String,String[]> phrases;
     private final Set<Locale> languages;
+    private final Map<String,Integer> frequencies;
 
     DictionaryTuple(String name,
                     Iterable<Locale> languages,
                     NavigableSet<String> words,
                     NavigableMap<String, String[]> autocomplete,
-                    NavigableMap<String, String[]> phrases) {
+                    NavigableMap<String, String[]> phrases,
+                    Map<String,Integer> frequencies) {
         assert name != null;
         assert languages != null;
         assert words != null;
         assert autocomplete != null;
         assert phrases != null;
+        assert frequencies != null;
         assert name.length() > 0;
         assert languages.iterator().hasNext();
         assert !words.isEmpty();
@@ -59,6 +63,7 @@ class DictionaryTuple {
         this.words = Collections.unmodifiableNavigableSet(words);
         this.autocomplete = Collections.unmodifiableNavigableMap(autocomplete);
         this.phrases = Collections.unmodifiableNavigableMap(phrases);
+        this.frequencies = Collections.unmodifiableMap(frequencies);
     }
 
     public String getName() {
@@ -80,4 +85,15 @@ class DictionaryTuple {
     public NavigableMap<String, String[]> getPhrases() {
         return phrases;
     }
+
+    /**
+     * @return How often the word is used, from the dictionary's frequency column, or 0 if it has none.
+     */
+    public int getFrequency(String word) {
+        return frequencies.getOrDefault(word, 0);
+    }
+
+    public Map<String,Integer> getFrequencies() {
+        return frequencies;
+    }
 }
@@ -35,7 +35,7 @@ public class DummyAutoCompleter implements AutoCompleter {
     }
 
     @Override
-    public Set<String> suggestWord(String stringSoFar) {
+    public Set<String> suggestWord(String stringSoFar, int limit) {
         return Collections.emptySet();
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete.impl;
+
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.NavigableMap;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A packed trie over the reduced forms of a dictionary, numbering each form by its place in sorted order. What the
+ * forms stand for is kept elsewhere, by form number.
+ *
+ * <p>Nodes are numbered breadth first, so the children of a node are numbered together and sorted by character, and
+ * the children of consecutive nodes follow each other. Each node also keeps the best value of any form under it,
+ * usually how often its most used word is used, so forms can be visited best first, stopping as soon as nothing left
+ * can make the cut. The whole trie is four arrays, so it
+ * can be read straight out of a {@link CompiledDictionary}.
+ */
+final class PrefixIndex {
+
+    static final int ROOT = 0;
+
+    private final CharBuffer chars;      // the character leading to each node, the root is node 0
+    private final IntBuffer firstChild;  // children of node n are firstChild[n] until firstChild[n + 1]
+    private final IntBuffer values;      // the number of the form ending at each node, or -1
+    private final IntBuffer best;        // the best value of the forms at or under each node
+
+    PrefixIndex(CharBuffer chars, IntBuffer firstChild, IntBuffer values, IntBuffer best) {
+        assert firstChild.limit() == chars.limit() + 1;
+        assert values.limit() == chars.limit();
+        assert best.limit() == chars.limit();
+        this.chars = chars;
+        this.firstChild = firstChild;
+        this.values = values;
+        this.best = best;
+    }
+
+    /**
+     * @param formValues The value of each form, by number, which must not be negative.
+     */
+    PrefixIndex(NavigableMap<String,?> sortedForms, IntUnaryOperator formValues) {
+        assert sortedForms.comparator() == null : "forms must be in natural order";
+        String[] forms = sortedForms.keySet().toArray(new String[sortedForms.size()]);
+        int maxNodes = 1;
+        for (String form : forms) {
+            maxNodes += form.length();
+        }
+        char[] chars = new char[maxNodes];
+        int[] firstChild = new int[maxNodes + 1];
+        int[] values = new int[maxNodes];
+        // while building, each node covers the forms from lo to hi, which share the node's prefix
+        int[] lo = new int[maxNodes];
+        int[] hi = new int[maxNodes];
+        int[] depth = new int[maxNodes];
+        hi[0] = forms.length;
+        int count = 1;
+        for (int n = 0; n < count; n++) {
+            int d = depth[n];
+            int i = lo[n];
+            values[n] = -1;
+            if (i < hi[n] && forms[i].length() == d) {
+                values[n] = i; // a prefix sorts before everything it is a prefix of
+                i++;
+            }
+            firstChild[n] = count;
+            while (i < hi[n]) {
+                char c = forms[i].charAt(d);
+                int j = i + 1;
+                while (j < hi[n] && forms[j].charAt(d) == c) {
+                    j++;
+                }
+                chars[count] = c;
+                lo[count] = i;
+                hi[count] = j;
+                depth[count] = d + 1;
+                count++;
+                i = j;
+            }
+        }
+        firstChild[count] = count;
+        int[] best = new int[count];
+        for (int n = count - 1; n >= 0; n--) { // children are numbered after their parents
+            best[n] = values[n] >= 0 ? formValues.applyAsInt(values[n]) : 0;
+            for (int c = firstChild[n], l = firstChild[n + 1]; c < l; c++) {
+                best[n] = Math.max(best[n], best[c]);
+            }
+        }
+        this.chars = CharBuffer.wrap(Arrays.copyOf(chars, count));
+        this.firstChild = IntBuffer.wrap(Arrays.copyOf(firstChild, count + 1));
+        this.values = IntBuffer.wrap(Arrays.copyOf(values, count));
+        this.best = IntBuffer.wrap(best);
+    }
+
+    /**
+     * Visits the nodes under a node, and the node itself, the best first and the shallowest of equals first, for as
+     * long as the visitor returns true. Every node at or under a visited node has a best value no higher than it.
+     */
+    void visitBest(int node, NodeVisitor visitor) {
+        if (node < 0) {
+            return;
+        }
+        // a max-heap of nodes, keyed on their best value and then the lowest node number
+        long[] heap = new long[16];
+        heap[0] = key(node);
+        for (int size = 1; size > 0; ) {
+            int n = 0x7FFFFFFF - (int)heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+            if (!visitor.visit(n, values.get(n), best.get(n))) {
+                return;
+            }
+            for (int c = firstChild.get(n), l = firstChild.get(n + 1); c < l; c++) {
+                if (size == heap.length) {
+                    heap = Arrays.copyOf(heap, size * 2);
+                }
+                heap[size] = key(c);
+                siftUp(heap, size++);
+            }
+        }
+    }
+
+    private long key(int node) {
+        return (long)best.get(node) << 32 | 0x7FFFFFFF - node;
+    }
+
+    private static void siftUp(long[] heap, int i) {
+        long key = heap[i];
+        while (i > 0 && heap[(i - 1) >>> 1] < key) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = key;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        long key = heap[0];
+        int i = 0;
+        for (int c = 1; c < size; c = i * 2 + 1) {
+            if (c + 1 < size && heap[c + 1] > heap[c]) {
+                c++;
+            }
+            if (heap[c] <= key) {
+                break;
+            }
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = key;
+    }
+
+    /**
+     * @return The number of nodes in the trie.
+     */
+    int size() {
+        return chars.limit();
+    }
+
+    CharBuffer chars() {
+        return chars.duplicate();
+    }
+
+    IntBuffer firstChild() {
+        return firstChild.duplicate();
+    }
+
+    IntBuffer values() {
+        return values.duplicate();
+    }
+
+    IntBuffer best() {
+        return best.duplicate();
+    }
+
+    /**
+     * @return The node for the prefix, or -1 if no form starts with it.
+     */
+    int find(String prefix) {
+        int node = ROOT;
+        for (int i = 0, l = prefix.length(); i < l && node >= 0; i++) {
+            node = child(node, prefix.charAt(i));
+        }
+        return node;
+    }
+
+    /**
+     * @return The child of the node for the character, or -1 if there is none or the node is -1.
+     */
+    int child(int node, char c) {
+        if (node < 0) {
+            return -1;
+        }
+        int low = firstChild.get(node);
+        int high = firstChild.get(node + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char m = chars.get(mid);
+            if (m < c) {
+                low = mid + 1;
+            } else if (m > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    interface NodeVisitor {
+
+        /**
+         * @param form The number of the form ending at the node, or -1.
+         * @param best The best value of the forms at or under the node.
+         * @return false to stop visiting.
+         */
+        boolean visit(int node, int form, int best);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the best scoring words offered to it, by number, up to a limit, in a min-heap with the worst of them on top.
+ * Each offer costs O(log K), so choosing from n candidates is O(n log K) instead of sorting all of them. A word
+ * offered more than once keeps its best score. Equal scores go to the lower order, and then to the word offered
+ * first, so the result doesn't depend on the order candidates are found in.
+ */
+final class TopWords {
+
+    private static final Comparator<Scored> WORST_FIRST = (a, b) -> {
+        int c = Double.compare(a.score, b.score);
+        if (c == 0) {
+            c = Long.compare(b.order, a.order);
+        }
+        return c != 0 ? c : Long.compare(b.seq, a.seq);
+    };
+
+    private final int limit;
+    private final PriorityQueue<Scored> heap;
+    private final Map<Integer,Scored> byWord = new HashMap<>();
+
+    private long seq = 0;
+
+    TopWords(int limit) {
+        assert limit > 0;
+        this.limit = limit;
+        this.heap = new PriorityQueue<>(Math.min(limit, 64) + 1, WORST_FIRST);
+    }
+
+    void offer(int word, double score) {
+        offer(word, score, 0L);
+    }
+
+    void offer(int word, double score, long order) {
+        if (!admits(score, order)) {
+            return; // most offers end here, and a repeat this low can't beat its own score either
+        }
+        Scored existing = byWord.get(word);
+        if (existing != null) {
+            if (score < existing.score || score == existing.score && order >= existing.order) {
+                return;
+            }
+            heap.remove(existing); // O(K), but only for repeats
+            existing.score = score;
+            existing.order = order;
+            heap.add(existing);
+            return;
+        }
+        if (heap.size() >= limit) {
+            byWord.remove(heap.poll().word);
+        }
+        Scored scored = new Scored(word, score, order, seq++);
+        heap.add(scored);
+        byWord.put(word, scored);
+    }
+
+    boolean isFull() {
+        return heap.size() >= limit;
+    }
+
+    /**
+     * @return true if a new word with the score and order would get in.
+     */
+    boolean admits(double score, long order) {
+        if (!isFull()) {
+            return true;
+        }
+        Scored worst = heap.peek();
+        return score > worst.score || score == worst.score && order < worst.order;
+    }
+
+    /**
+     * @return The numbers of the words, best first.
+     */
+    int[] best() {
+        List<Scored> sorted = new ArrayList<>(heap);
+        sorted.sort(WORST_FIRST.reversed());
+        int[] words = new int[sorted.size()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = sorted.get(i).word;
+        }
+        return words;
+    }
+
+    private static class Scored {
+
+        private final int word;
+        private final long seq;
+
+        private double score;
+        private long order;
+
+        private Scored(int word, double score, long order, long seq) {
+            this.word = word;
+            this.score = score;
+            this.order = order;
+            this.seq = seq;
+        }
+    }
+}
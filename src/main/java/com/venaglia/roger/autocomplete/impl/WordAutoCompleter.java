@@ -21,13 +21,9 @@ import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.venaglia.roger.autocomplete.AutoCompleter;
 import com.venaglia.roger.autocomplete.CompletablePart;
+import com.venaglia.roger.autocomplete.CompletionSession;
 import com.venaglia.roger.autocomplete.Reducer;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.*;
 
 /**
@@ -36,39 +32,108 @@ import java.util.*;
 @Singleton
 public class WordAutoCompleter implements AutoCompleter {
 
-    private final DictionaryTuple dictionary;
+    // in log units, a word matched by the next reducer needs about 55 times the usage to rank the same
+    private static final double REDUCER_PENALTY = 4.0;
+
+    private final CompiledDictionary dictionary;
+    private final PrefixIndex index;
 
     @Inject
     public WordAutoCompleter(DictionaryLoader loader) {
         dictionary = loader.get();
+        index = dictionary.getIndex();
     }
 
+    /**
+     * Parts that are not buttons, whose identities don't start with '#', are taken as text; a button ends a word.
+     */
     @Override
     public Set<CompletablePart> suggest(List<CompletablePart> lastFewParts, int limit) {
-        return null;
+        StringBuilder text = new StringBuilder();
+        for (CompletablePart part : lastFewParts) {
+            String identity = part.getPartIdentity();
+            text.append(identity.startsWith("#") ? " " : identity);
+        }
+        Set<CompletablePart> results = new LinkedHashSet<>();
+        for (String word : suggestWord(text.toString(), limit)) {
+            results.add(new WordPart(word));
+        }
+        return results;
     }
 
+    /**
+     * Words are ranked by how often they are used, less a penalty for each reducer it took to match them, keeping
+     * the best {@code limit} of them in a bounded heap.
+     */
     @Override
-    public Set<String> suggestWord(String stringSoFar) {
-        Set<String> results = new LinkedHashSet<>();
-        NavigableMap<String,String[]> allWords = dictionary.getAutocomplete();
+    public Set<String> suggestWord(String stringSoFar, int limit) {
+        if (limit <= 0) {
+            return Collections.emptySet();
+        }
+        TopWords top = new TopWords(limit);
+        int[] nodes = new int[Reducer.ALL.size()];
         for (String string : iterateOn(Reducer.IDENTITY.reduce(stringSoFar))) {
+            int r = 0;
             for (Reducer reducer : Reducer.ALL) {
-                String token = reducer.reduce(string);
-                SortedMap<String,String[]> match = allWords.subMap(token, token + "\uFFFF");
-                for (String[] words : match.values()) {
-                    Collections.addAll(results, words);
-                }
+                nodes[r++] = index.find(reducer.reduce(string));
             }
+            rank(nodes, top);
         }
-        return results;
+        return new LinkedHashSet<>(wordsOf(top));
+    }
+
+    /**
+     * Keeps the reductions of the text and where they are in the index from one keystroke to the next.
+     */
+    @Override
+    public CompletionSession startSession(int limit) {
+        return new WordCompletionSession(this, index, limit);
+    }
+
+    /**
+     * Offers the words of the forms under each node to the heap, by number. The index is walked most used subtree
+     * first, and the walk stops at the first subtree whose most used word couldn't get in. Ties go to the earlier
+     * reducer and then to the shorter form, as if every word had been offered.
+     *
+     * @param nodes A node in the index for each of {@link Reducer#ALL}, in order, or -1 where nothing matched.
+     */
+    void rank(int[] nodes, TopWords top) {
+        for (int r = 0; r < nodes.length; r++) {
+            double penalty = r * REDUCER_PENALTY;
+            long reducer = (long)r << 32;
+            index.visitBest(nodes[r], (node, form, best) -> {
+                if (!top.admits(Math.log1p(best) - penalty, reducer | node)) {
+                    return false; // nothing left under any node still to visit can get in
+                }
+                if (form >= 0) {
+                    dictionary.forEachWord(form, word -> top.offer(word, score(word) - penalty, reducer | node));
+                }
+                return true;
+            });
+        }
+    }
+
+    /**
+     * @return The words that made it into the heap, best first. Only these are decoded from the dictionary.
+     */
+    List<String> wordsOf(TopWords top) {
+        int[] best = top.best();
+        List<String> words = new ArrayList<>(best.length);
+        for (int word : best) {
+            words.add(dictionary.getWord(word));
+        }
+        return words;
+    }
+
+    private double score(int word) {
+        return Math.log1p(dictionary.getFrequency(word));
     }
 
     private Iterable<String> iterateOn(String tokenStringSoFar) {
         int from = tokenStringSoFar.length();
         for (int i = 0; i < 4 && from >= 0; i++) {
             // limit matching to 4 "words"
-            from = tokenStringSoFar.lastIndexOf(' ', from);
+            from = tokenStringSoFar.lastIndexOf(' ', from - 1);
         }
         final String block = from >= 0 ? tokenStringSoFar.substring(from + 1) : tokenStringSoFar;
         return () -> new Iterator<String>() {
@@ -88,44 +153,39 @@ public class WordAutoCompleter implements AutoCompleter {
                 try {
                     return block.substring(i);
                 } finally {
-                    i = block.indexOf(' ', i);
+                    int space = block.indexOf(' ', i);
+                    i = space < 0 ? -1 : space + 1; // the next window starts after the space
                 }
             }
         };
     }
 
-    public static void main(String[] args) throws IOException {
-        // training
-        Collection<Reducer> reducers = Reducer.ALL;
-        Set<String> words = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        try (BufferedReader in = new BufferedReader(new FileReader(args[0]))) {
-            for (String word = in.readLine(); word != null; word = in.readLine()) {
-                words.add(word);
-            }
+    private static final class WordPart implements CompletablePart {
+
+        private final String word;
+
+        private WordPart(String word) {
+            this.word = word;
         }
-        TreeMap<String,String[]> wordsByReducedForm = new TreeMap<>();
-        for (Reducer reducer : reducers) {
-            for (String word : words) {
-                String form = reducer.reduce(word);
-                String[] options = wordsByReducedForm.get(form);
-                if (options == null) {
-                    options = new String[]{ word };
-                    wordsByReducedForm.put(form, options);
-                } else if (!options[options.length - 1].equals(word)) {
-                    String[] tmp = new String[options.length + 1];
-                    System.arraycopy(options, 0, tmp, 0, options.length);
-                    tmp[options.length] = word;
-                    wordsByReducedForm.put(form, tmp);
-                }
-            }
+
+        @Override
+        public String getPartIdentity() {
+            return word;
         }
-        System.out.printf("Derived %d forms for %d words\n", wordsByReducedForm.size(), words.size());
-        try (PrintWriter out = new PrintWriter(new FileWriter(args[1]))) {
-            for (Map.Entry<String,String[]> entry : wordsByReducedForm.entrySet()) {
-                out.print(entry.getKey());
-                out.print(';');
-                out.println(String.join(",", entry.getValue()));
-            }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof WordPart && word.equals(((WordPart)o).word);
+        }
+
+        @Override
+        public int hashCode() {
+            return word.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return word;
         }
     }
 }
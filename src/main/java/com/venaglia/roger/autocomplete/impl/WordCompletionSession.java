@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.autocomplete.impl;
+
+import com.venaglia.roger.autocomplete.AbstractCompletionSession;
+import com.venaglia.roger.autocomplete.Reducer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Suggests words as {@link WordAutoCompleter#suggestWord} does, without starting over on each keystroke. Like it, the
+ * text is matched from the start of each of the last few words, so forms with spaces in them can match. Each of these
+ * windows keeps its own reductions, which rewrite only the last few characters, and the path through the index for
+ * every character of each reduction, so only what a change touched is walked again. When no reduction of any window
+ * moved in the index, the suggestions can't have changed and aren't looked up again.
+ */
+final class WordCompletionSession extends AbstractCompletionSession {
+
+    private static final int WINDOWS = 4; // as many words as WordAutoCompleter matches against
+
+    private final WordAutoCompleter autoCompleter;
+    private final PrefixIndex index;
+    private final int limit;
+    private final Reducer.Incremental text = Reducer.IDENTITY.incremental(); // the text the windows are cut from
+
+    private List<Window> windows = Collections.emptyList();
+    private int unchanged = 0; // how much of the text still holds, since the last lookup
+    private int[] shown = null;
+
+    WordCompletionSession(WordAutoCompleter autoCompleter, PrefixIndex index, int limit) {
+        this.autoCompleter = autoCompleter;
+        this.index = index;
+        this.limit = limit;
+    }
+
+    @Override
+    protected void appendChar(char c) {
+        text.append(c);
+        unchanged = Math.min(unchanged, text.getUnchanged());
+    }
+
+    @Override
+    protected void truncate(int length) {
+        text.truncate(length);
+        unchanged = Math.min(unchanged, text.getUnchanged());
+    }
+
+    @Override
+    protected List<String> suggest() {
+        CharSequence reduced = text.getReduced();
+        int end = text.getLastWordEnd();
+        List<Window> next = new ArrayList<>(WINDOWS);
+        int[] nodes = new int[0];
+        for (int start : windowStarts(reduced, end)) {
+            Window window = null;
+            for (Window w : windows) {
+                if (w.start == start && start <= unchanged) {
+                    window = w; // the text before the window hasn't changed, so it still starts a word
+                }
+            }
+            if (window == null) {
+                window = new Window(start);
+            }
+            window.update(reduced, Math.min(window.fed, Math.max(0, unchanged - start)), end);
+            next.add(window);
+            nodes = concat(nodes, window.nodes);
+        }
+        windows = next;
+        unchanged = reduced.length();
+        if (Arrays.equals(nodes, shown)) {
+            return null;
+        }
+        shown = nodes;
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        TopWords top = new TopWords(limit);
+        for (Window window : windows) {
+            autoCompleter.rank(window.nodes, top);
+        }
+        return autoCompleter.wordsOf(top);
+    }
+
+    /**
+     * @return Where each of the last few words starts, first to last.
+     */
+    private static int[] windowStarts(CharSequence text, int end) {
+        int[] starts = new int[WINDOWS];
+        int n = WINDOWS;
+        for (int i = end - 1; i >= 0 && n > 0; i--) {
+            if (text.charAt(i) == ' ') {
+                starts[--n] = i + 1;
+            }
+        }
+        if (n > 0) {
+            starts[--n] = 0;
+        }
+        return Arrays.copyOfRange(starts, n, WINDOWS);
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    /**
+     * The reductions of the text from the start of a word to the end.
+     */
+    private final class Window {
+
+        private final int start;
+        private final Reducer.Incremental[] reductions;
+        private final int[][] paths;   // the node after each character of each reduction
+        private final int[] unchanged; // how much of each path still holds, since the last lookup
+        private final int[] nodes;     // the node of the reduction for each reducer
+
+        private int fed = 0;           // how many characters of the text were appended to the reductions
+
+        private Window(int start) {
+            this.start = start;
+            this.reductions = new Reducer.Incremental[Reducer.ALL.size()];
+            this.paths = new int[reductions.length][];
+            this.unchanged = new int[reductions.length];
+            this.nodes = new int[reductions.length];
+            int r = 0;
+            for (Reducer reducer : Reducer.ALL) {
+                reductions[r] = reducer.incremental();
+                paths[r++] = new int[16]; // the root at 0
+            }
+        }
+
+        /**
+         * Keeps the first {@code valid} characters appended, then appends the text up to {@code end}.
+         */
+        private void update(CharSequence text, int valid, int end) {
+            if (valid < fed) {
+                for (int r = 0; r < reductions.length; r++) {
+                    reductions[r].truncate(valid);
+                    unchanged[r] = Math.min(unchanged[r], reductions[r].getUnchanged());
+                }
+                fed = valid;
+            }
+            for (; start + fed < end; fed++) {
+                char c = text.charAt(start + fed);
+                for (int r = 0; r < reductions.length; r++) {
+                    reductions[r].append(c);
+                    unchanged[r] = Math.min(unchanged[r], reductions[r].getUnchanged());
+                }
+            }
+            for (int r = 0; r < reductions.length; r++) {
+                CharSequence reduced = reductions[r].getReduced();
+                int l = reduced.length();
+                if (paths[r].length <= l) {
+                    paths[r] = Arrays.copyOf(paths[r], Math.max(l + 1, paths[r].length * 2));
+                }
+                int[] path = paths[r];
+                for (int k = unchanged[r]; k < l; k++) {
+                    path[k + 1] = index.child(path[k], reduced.charAt(k));
+                }
+                unchanged[r] = l;
+                nodes[r] = path[reductions[r].getLastWordEnd()];
+            }
+        }
+    }
+}
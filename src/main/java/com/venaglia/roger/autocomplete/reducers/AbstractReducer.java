@@ -20,7 +20,8 @@ package com.venaglia.roger.autocomplete.reducers;
 import com.venaglia.roger.autocomplete.Reducer;
 
 import java.text.Normalizer;
-import java.util.NavigableSet;
+import java.util.Collections;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -30,14 +31,14 @@ abstract class AbstractReducer implements Reducer {
 
     private final TreeMap<String,String> reduction = new TreeMap<>();
 
-    private NavigableSet<String> entries;
+    private volatile RewriteAutomaton automaton;
 
     protected final void map(String identity) {
         map(identity, identity);
     }
 
     protected final void map(String from, String to) {
-        assert entries == null;
+        assert automaton == null;
         reduction.put(normalize(from), normalize(to));
     }
 
@@ -45,26 +46,60 @@ abstract class AbstractReducer implements Reducer {
         return Normalizer.normalize(text, Normalizer.Form.NFD).toLowerCase().replaceAll("[^a-z]+", " ");
     }
 
+    /**
+     * @return The rules, after normalizing.
+     */
+    Map<String,String> getRules() {
+        return Collections.unmodifiableMap(reduction);
+    }
+
+    @Override
+    public String getVersion() {
+        return getClass().getName() + "-" + Integer.toHexString(reduction.hashCode());
+    }
+
     @Override
     public String reduce(String word) {
-        if (entries == null) {
-            entries = reduction.navigableKeySet();
+        StringBuilder out = new StringBuilder(word.length() + 4);
+        reduce(word, out);
+        return out.toString();
+    }
+
+    /**
+     * Rewrites the word, applying the longest matching rule at each position.
+     */
+    @Override
+    public void reduce(CharSequence word, StringBuilder into) {
+        automaton().rewrite(isAscii(word) ? word : decompose(word), into);
+    }
+
+    /**
+     * Only the last few characters are rewritten on each change, those a longer rule could still match.
+     */
+    @Override
+    public Incremental incremental() {
+        return automaton().new Cursor();
+    }
+
+    private RewriteAutomaton automaton() {
+        RewriteAutomaton automaton = this.automaton;
+        if (automaton == null) {
+            automaton = this.automaton = new RewriteAutomaton(reduction); // rules are all mapped by now
         }
-        word = normalize(word);
-        int l = word.length();
-        StringBuilder out = new StringBuilder(l + l >> 2 + 2);
-        int i = 0;
-        while (i < l) {
-            String substring = word.substring(i);
-            String key = entries.floor(substring);
-            if (key != null && substring.startsWith(key)) {
-                out.append(reduction.get(key));
-                i += key.length();
-            } else {
-                out.append(word.charAt(i));
-                i++;
+        return automaton;
+    }
+
+    private static boolean isAscii(CharSequence word) {
+        for (int i = 0, l = word.length(); i < l; i++) {
+            if (word.charAt(i) >= 0x80) {
+                return false;
             }
         }
-        return out.toString().trim();
+        return true;
+    }
+
+    static String decompose(CharSequence word) {
+        // accents decompose into a letter and a mark, and the automaton reads the mark as a word break
+        return Normalizer.normalize(word, Normalizer.Form.NFD).toLowerCase();
     }
 }
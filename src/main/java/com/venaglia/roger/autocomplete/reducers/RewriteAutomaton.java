@@ -0,0 +1,248 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.autocomplete.reducers;
+
+import com.venaglia.roger.autocomplete.Reducer;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Rewrites text by a set of rules, always applying the rule with the longest match at each position. The rules are
+ * compiled into a trie with a dense transition table over a-z, so matching a rule is one array lookup per character
+ * and nothing is allocated while rewriting. Since no rule matches across a word break, the lookahead is bounded by
+ * the longest rule.
+ *
+ * <p>Input is read the way {@link AbstractReducer} normalizes it: letters are folded to lower case and each run of
+ * anything else becomes a single space. Characters outside ASCII must already be decomposed and lower cased.
+ */
+final class RewriteAutomaton {
+
+    private static final int LETTERS = 26;
+
+    private final int[] next;      // next[state * 26 + letter], 0 when there is none; state 0 is the root
+    private final String[] output; // the replacement for the rule ending at each state, or null
+    private final int lookahead;   // the longest rule
+
+    RewriteAutomaton(Map<String,String> rules) {
+        int maxStates = 1;
+        int lookahead = 1;
+        for (String from : rules.keySet()) {
+            maxStates += from.length();
+            lookahead = Math.max(lookahead, from.length());
+        }
+        int[] next = new int[maxStates * LETTERS];
+        String[] output = new String[maxStates];
+        int count = 1;
+        for (Map.Entry<String,String> rule : rules.entrySet()) {
+            String from = rule.getKey();
+            assert from.matches("[a-z]+") : "rules match letters only: '" + from + "'";
+            int state = 0;
+            for (int i = 0; i < from.length(); i++) {
+                int t = state * LETTERS + from.charAt(i) - 'a';
+                if (next[t] == 0) {
+                    next[t] = count++;
+                }
+                state = next[t];
+            }
+            output[state] = rule.getValue();
+        }
+        this.next = Arrays.copyOf(next, count * LETTERS);
+        this.output = Arrays.copyOf(output, count);
+        this.lookahead = lookahead;
+    }
+
+    /**
+     * Appends the rewritten text to {@code out}, without leading or trailing spaces.
+     */
+    void rewrite(CharSequence text, StringBuilder out) {
+        int start = out.length();
+        int l = text.length();
+        int i = 0;
+        while (i < l) {
+            int letter = letter(text.charAt(i));
+            if (letter < 0) {
+                do {
+                    i++;
+                } while (i < l && letter(text.charAt(i)) < 0);
+                if (out.length() > start) {
+                    out.append(' ');
+                }
+                continue;
+            }
+            i = appendLongestMatch(text, i, out);
+        }
+        int last = out.length();
+        while (last > start && out.charAt(last - 1) == ' ') {
+            last--;
+        }
+        out.setLength(last);
+    }
+
+    /**
+     * Appends the replacement for the longest rule matching at {@code i}, or the letter there if none match.
+     *
+     * @return Where the match ends.
+     */
+    private int appendLongestMatch(CharSequence text, int i, StringBuilder out) {
+        int l = text.length();
+        String replacement = null;
+        int end = i + 1;
+        int letter = letter(text.charAt(i));
+        for (int j = i, state = 0; j < l && letter >= 0; ) {
+            state = next[state * LETTERS + letter];
+            if (state == 0) {
+                break;
+            }
+            j++;
+            if (output[state] != null) {
+                replacement = output[state];
+                end = j;
+            }
+            letter = j < l ? letter(text.charAt(j)) : -1;
+        }
+        if (replacement != null) {
+            out.append(replacement);
+        } else {
+            out.append((char)('a' + letter(text.charAt(i))));
+        }
+        return end;
+    }
+
+    private static int letter(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        }
+        return -1;
+    }
+
+    /**
+     * Rewrites text as it is typed. The text is split into tokens, each a rule, a letter no rule matched, or a word
+     * break; a token is final once the longest rule fits between its start and the end of the text, so each change
+     * only rewrites the last few characters.
+     */
+    final class Cursor implements Reducer.Incremental {
+
+        private final StringBuilder in = new StringBuilder(); // what was typed, as lower case letters and spaces
+        private final StringBuilder out = new StringBuilder();
+
+        private int[] typedEnds = new int[16]; // the length of in after the first n characters were typed
+        private int typed = 0;
+        private int[] tokenStarts = new int[16];
+        private int[] tokenEnds = new int[16];
+        private int[] tokenOutEnds = new int[16];
+        private int tokens = 0;
+        private int unchanged = 0;
+
+        @Override
+        public void append(char c) {
+            int valid = in.length();
+            if (c < 0x80) {
+                appendFolded(c);
+            } else {
+                String decomposed = AbstractReducer.decompose(String.valueOf(c));
+                for (int i = 0; i < decomposed.length(); i++) {
+                    appendFolded(decomposed.charAt(i));
+                }
+            }
+            if (++typed == typedEnds.length) {
+                typedEnds = Arrays.copyOf(typedEnds, typed * 2);
+            }
+            typedEnds[typed] = in.length();
+            resume(valid);
+        }
+
+        private void appendFolded(char c) {
+            int letter = letter(c);
+            in.append(letter < 0 ? ' ' : (char)('a' + letter));
+        }
+
+        @Override
+        public void truncate(int length) {
+            assert length >= 0 && length <= typed;
+            typed = length;
+            in.setLength(typedEnds[length]);
+            resume(in.length());
+        }
+
+        /**
+         * Drops the tokens that could read differently now that the text after {@code valid} has changed, and
+         * rewrites the text from there.
+         */
+        private void resume(int valid) {
+            while (tokens > 0 && !isFinal(tokens - 1, valid)) {
+                tokens--;
+            }
+            int p = tokens > 0 ? tokenEnds[tokens - 1] : 0;
+            out.setLength(tokens > 0 ? tokenOutEnds[tokens - 1] : 0);
+            unchanged = out.length();
+            for (int l = in.length(); p < l; ) {
+                int start = p;
+                if (in.charAt(p) == ' ') {
+                    do {
+                        p++;
+                    } while (p < l && in.charAt(p) == ' ');
+                    if (out.length() > 0) {
+                        out.append(' ');
+                    }
+                } else {
+                    p = appendLongestMatch(in, p, out);
+                }
+                push(start, p);
+            }
+        }
+
+        private boolean isFinal(int token, int valid) {
+            int start = tokenStarts[token];
+            int end = tokenEnds[token];
+            return end <= valid && start + lookahead <= valid && (end < valid || in.charAt(start) != ' ');
+        }
+
+        private void push(int start, int end) {
+            if (tokens == tokenStarts.length) {
+                tokenStarts = Arrays.copyOf(tokenStarts, tokens * 2);
+                tokenEnds = Arrays.copyOf(tokenEnds, tokens * 2);
+                tokenOutEnds = Arrays.copyOf(tokenOutEnds, tokens * 2);
+            }
+            tokenStarts[tokens] = start;
+            tokenEnds[tokens] = end;
+            tokenOutEnds[tokens++] = out.length();
+        }
+
+        @Override
+        public CharSequence getReduced() {
+            return out;
+        }
+
+        @Override
+        public int getUnchanged() {
+            return unchanged;
+        }
+
+        @Override
+        public int getLastWordEnd() {
+            int l = out.length();
+            boolean endsWithBreak = tokens > 0 && in.charAt(tokenStarts[tokens - 1]) == ' ';
+            return endsWithBreak && l > 0 && out.charAt(l - 1) == ' ' ? l - 1 : l;
+        }
+    }
+}
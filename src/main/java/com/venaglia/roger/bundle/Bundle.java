@@ -78,6 +78,20 @@ public class Bundle {
         return result;
     }
 
+    /**
+     * @return A string that changes whenever a different bundle is put to use, or the bundle file is replaced.
+     */
+    public String getId() {
+        File bundleFile = getBundleFile();
+        String path;
+        try {
+            path = bundleFile.getCanonicalPath(); // follows the bundle-use.zip link to the deployed bundle
+        } catch (IOException e) {
+            path = bundleFile.getAbsolutePath();
+        }
+        return String.format("%08x%x%x", path.hashCode(), bundleFile.length(), bundleFile.lastModified());
+    }
+
     private synchronized void load() {
         Entry entry = cache.getIfPresent("@");
         if (entry == null) {
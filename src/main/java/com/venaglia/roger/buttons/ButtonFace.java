@@ -88,13 +88,27 @@ public class ButtonFace {
         return label;
     }
 
+    /**
+     * @return A key that is the same for faces that look the same, within one bundle.
+     */
+    public String getCacheKey() {
+        return (filename == null ? "" : filename) + "\n" + label;
+    }
+
     public byte[] getImageDataRGB(ImageSerializer imageSerializer) {
         if (imageDataRGB == null) {
-            imageDataRGB = imageSerializer.serialize(bufferImageImpl());
+            imageDataRGB = serialize(imageSerializer);
         }
         return imageDataRGB;
     }
 
+    /**
+     * Renders and serializes the face without keeping the result, for callers that keep it elsewhere.
+     */
+    public byte[] serialize(ImageSerializer imageSerializer) {
+        return imageSerializer.serialize(bufferImageImpl());
+    }
+
     public InputStream readOriginalFile() throws IOException {
         return filename == null ? null : bundle.get(filename).orElse(null);
     }
@@ -17,6 +17,7 @@
 
 package com.venaglia.roger.buttons;
 
+import java.util.Collection;
 import java.util.HashMap;
 
 /**
@@ -29,4 +30,6 @@ public interface ButtonSet {
     Button get(String id);
 
     Button[] getMany(String... ids);
+
+    Collection<Button> getAll();
 }
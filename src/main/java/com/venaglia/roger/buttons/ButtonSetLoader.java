@@ -26,6 +26,8 @@ import java.awt.image.BufferedImage;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -72,6 +74,11 @@ public class ButtonSetLoader extends AbstractLoader<ButtonSet> {
                 }
                 return buttons;
             }
+
+            @Override
+            public Collection<Button> getAll() {
+                return Collections.unmodifiableCollection(buttonMap.values());
+            }
         };
     }
 
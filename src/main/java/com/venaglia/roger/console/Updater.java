@@ -29,6 +29,7 @@ import com.venaglia.roger.ui.ButtonProcessor;
 import com.venaglia.roger.ui.Intervals;
 import com.venaglia.roger.ui.UI;
 
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,6 +51,7 @@ public class Updater {
     private final Lock lock = new ReentrantLock();
     private final SimpleButtonListener buttonListener;
     private final ScheduledExecutorService executorService;
+    private final int prefetch = Integer.getInteger("con.menu.prefetch", 4); // buttons either side of those shown
 
     @Inject
     public Updater(ScheduledExecutorService executorService) {
@@ -95,7 +97,7 @@ public class Updater {
 
     private State state = State.NEW;
     private State nextState = State.NEW;
-    private long nextStateAt = Long.MAX_VALUE;
+    private long nextStateAt = Long.MAX_VALUE; // ticker nanoseconds
     private ScheduledFuture<?> scheduledFuture;
     private int index;
     @SuppressWarnings("MismatchedQueryAndUpdateOfCollection")
@@ -121,10 +123,10 @@ public class Updater {
 
     private void tick() {
         assert state != State.NEW;
-        long now = System.currentTimeMillis();
+        long now = intervals.ticker().read();
         lock.lock();
         try {
-            if (now >= nextStateAt) {
+            if (nextStateAt != Long.MAX_VALUE && now - nextStateAt >= 0) {
                 setState(nextState);
             }
             List<Button> currentButtons = menuTree.getCurrentButtons();
@@ -141,6 +143,9 @@ public class Updater {
                     ui.showTheseButtons(subList.get(0), subList.get(1), subList.get(2), subList.get(3), nil, nil, nil);
                     break;
             }
+            if (state != State.PAUSED) {
+                prefetch(currentButtons);
+            }
         } finally {
             lock.unlock();
         }
@@ -154,19 +159,47 @@ public class Updater {
             ui.showTheseButtons(subList.get(0), subList.get(1), subList.get(2), subList.get(3), nil, nil, nil);
             state = State.PAUSED;
             index = 0;
+            prefetch(currentButtons);
         } finally {
             lock.unlock();
         }
     }
 
+    /**
+     * Gets the buttons that scrolling either way would show next ready in the background, along with the first page
+     * of each menu that is one press away.
+     */
+    private void prefetch(List<Button> currentButtons) {
+        int buttonCount = currentButtons.size();
+        if (prefetch <= 0 || buttonCount == 0) {
+            return;
+        }
+        Set<Button> buttons = new LinkedHashSet<>();
+        for (int i = -prefetch; i < 4 + prefetch; i++) {
+            buttons.add(currentButtons.get(((index + i) % buttonCount + buttonCount) % buttonCount));
+        }
+        for (int i = 0; i < 4; i++) {
+            List<Button> childButtons = menuTree.getChildButtons(subList.get(i).getId());
+            if (childButtons != null) {
+                buttons.addAll(childButtons.subList(0, Math.min(4, childButtons.size())));
+            }
+        }
+        ui.prefetch(buttons);
+    }
+
     private void setState(State state) {
         setState(state, state, Long.MAX_VALUE);
     }
 
-    private void setState(State state, State nextState, long when) {
+    /**
+     * @param after Milliseconds until the next state, or Long.MAX_VALUE for never.
+     */
+    private void setState(State state, State nextState, long after) {
         this.state = state;
         this.nextState = nextState;
-        this.nextStateAt = when < Integer.MAX_VALUE ? System.currentTimeMillis() + when : when;
+        this.nextStateAt = after == Long.MAX_VALUE
+                           ? Long.MAX_VALUE
+                           : intervals.ticker().read() + TimeUnit.MILLISECONDS.toNanos(after);
     }
 
     private boolean noneAreNull(Object... objects) {
@@ -206,7 +239,7 @@ public class Updater {
                                                                                      delay,
                                                                                      intervals.eventDelay(),
                                                                                      TimeUnit.MILLISECONDS);
-                            setState(state, advanceDirection, System.currentTimeMillis() + delay);
+                            setState(state, advanceDirection, delay);
                             break;
                     }
                     break;
@@ -17,42 +17,73 @@
 
 package com.venaglia.roger.console.server;
 
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
 
 /**
- * Created by ed on 1/7/17.
+ * A thread safe cache bounded by the total size of its values, least recently used entries are evicted first.
  */
 public class Cache<K,V> {
 
-    private final Map<K,V> store;
-    private final int limit;
+    private final com.google.common.cache.Cache<K,V> store;
+    private final ToIntFunction<V> sizeOf;
+    private final long limit;
+    private final AtomicLong size = new AtomicLong();
 
-    public Cache(int limit) {
-        assert limit > 0 && limit <= 1 << 20;
+    public Cache(long limit, ToIntFunction<V> sizeOf) {
+        assert limit > 0;
+        assert sizeOf != null;
         this.limit = limit;
-        store = new LinkedHashMap<>(limit * 2, 0.5f);
+        this.sizeOf = sizeOf;
+        this.store = CacheBuilder.newBuilder()
+                                 .concurrencyLevel(1) // keeps the whole budget in one LRU order
+                                 .maximumWeight(limit)
+                                 .<K,V>weigher((k, v) -> sizeOf.applyAsInt(v))
+                                 .<K,V>removalListener(n -> size.addAndGet(-sizeOf.applyAsInt(n.getValue())))
+                                 .recordStats()
+                                 .build();
     }
 
     public V get(K key) {
-        return store.get(key);
+        return store.getIfPresent(key);
+    }
+
+    /**
+     * @return true if the key is present, without counting a hit or miss or refreshing its recency.
+     */
+    public boolean contains(K key) {
+        return store.asMap().containsKey(key);
     }
 
     public void put(K key, V value) {
+        size.addAndGet(sizeOf.applyAsInt(value));
         store.put(key, value);
-        if (store.size() > limit) {
-            Iterator<Map.Entry<K,V>> iterator = store.entrySet().iterator();
-            iterator.next();
-            iterator.remove();
-        }
     }
 
     public void invalidate(K key) {
-       store.remove(key);
+       store.invalidate(key);
     }
 
     public void invalidateAll() {
-        store.clear();
+        store.invalidateAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getCount() {
+        return store.size();
+    }
+
+    public CacheStats getStats() {
+        return store.stats();
     }
 }
@@ -17,14 +17,16 @@
 
 package com.venaglia.roger.console.server;
 
+import java.awt.Rectangle;
 import java.io.IOException;
-import java.util.function.Consumer;
 
 /**
  * Created by ed on 1/5/17.
  */
 public interface Con {
 
+    int BUTTON_COUNT = 12;
+
     void hardReset() throws IOException;
 
     void softReset(byte selectorByte) throws IOException;
@@ -37,7 +39,20 @@ public interface Con {
 
     void updateImage(byte selectorByte, byte[] data) throws IOException;
 
-    void readButtons(Consumer<Boolean> resultBuilder);
+    /**
+     * Writes only the given rectangle of a full frame, the rest of each display is left as it is. Consoles that
+     * can't address part of a display write the whole frame.
+     */
+    default void updateImage(byte selectorByte, byte[] data, Rectangle region) throws IOException {
+        updateImage(selectorByte, data);
+    }
+
+    /**
+     * Scans the buttons once.
+     *
+     * @return A bit for each button, bit n is set when button n is down.
+     */
+    int readButtons();
 
     void sendRaw(byte selectorByte, byte command, byte... bytes) throws IOException;
 }
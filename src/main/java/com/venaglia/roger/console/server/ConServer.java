@@ -20,8 +20,11 @@ package com.venaglia.roger.console.server;
 import static java.lang.System.currentTimeMillis;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.cache.CacheStats;
 import com.venaglia.roger.console.server.impl.ButtonDownSupplier;
+import com.venaglia.roger.console.server.impl.ButtonScanner;
 import com.venaglia.roger.console.server.impl.DelegatedCommand;
+import com.venaglia.roger.console.server.impl.FrameHistory;
 import com.venaglia.roger.console.server.impl.TestImage;
 import com.venaglia.roger.console.server.pi.ConPi;
 import com.venaglia.roger.console.server.sim.ConSim;
@@ -29,9 +32,12 @@ import com.venaglia.roger.console.server.sim.SimulatedButtons;
 import com.venaglia.roger.ui.Command;
 import com.venaglia.roger.ui.ImageSerializer;
 import com.venaglia.roger.ui.impl.ConClient;
-import com.venaglia.roger.ui.impl.ImageSerializer444;
-import com.venaglia.roger.ui.impl.ImageSerializer565;
-import com.venaglia.roger.ui.impl.ImageSerializer888;
+import com.venaglia.roger.ui.impl.Connection;
+import com.venaglia.roger.ui.impl.Frame;
+import com.venaglia.roger.ui.impl.FrameCodec;
+import com.venaglia.roger.ui.impl.RasterImageSerializer;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Format;
+import com.venaglia.roger.ui.impl.ScanButtonsCommand;
 import com.venaglia.roger.ui.impl.Sha256;
 
 import java.awt.*;
@@ -39,7 +45,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.InetAddress;
@@ -49,15 +54,22 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
 import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -78,148 +90,239 @@ public abstract class ConServer implements Runnable {
     private static final Pattern MATCH_IMAGE_NAME_OR_ALL = Pattern.compile("^(\\*|\\w+)$");
     private static final Pattern[] MATCH_IMAGE_STORE_ARGS = {
             MATCH_IMAGE_NAME,
-            Pattern.compile("^([0-9ZA-Za-z/+]+)$")
+            Pattern.compile("^([0-9A-Za-z/+]+={0,2})$")
     };
     private static final Pattern[] MATCH_IMAGE_SHOW_ARGS = {
             MATCH_IMAGE_NAME_OR_BUILT_IN,
             MATCH_LCD_SELECTOR[0]
     };
+    private static final Pattern[] MATCH_IMAGE_SHOW_REGION_ARGS = {
+            MATCH_IMAGE_NAME_OR_BUILT_IN,
+            MATCH_LCD_SELECTOR[0],
+            Pattern.compile("^(0|[1-9][0-9]{0,2})$"),
+            Pattern.compile("^(0|[1-9][0-9]{0,2})$"),
+            Pattern.compile("^([1-9][0-9]{0,2})$"),
+            Pattern.compile("^([1-9][0-9]{0,2})$")
+    };
     private static final Pattern[] MATCH_IMAGE_CLEAR_ARGS = {
             MATCH_IMAGE_NAME_OR_ALL
     };
     private static final Pattern MATCH_OK = Pattern.compile("^ok.*$");
-    private static final Pattern MATCH_DOWN = Pattern.compile("^down [x-]*$");
+    private static final Pattern MATCH_PONG = Pattern.compile("^pong.*$");
+    private static final Pattern MATCH_DOWN = Pattern.compile("^down (0x[0-9a-f]+|[x-]*)$");
+    private static final Pattern MATCH_EVENT = Pattern.compile("^(down|up) (\\d+)$");
+    private static final Pattern MATCH_IMAGE = Pattern.compile("^(ok.*|need \\w+|have( \\w+)*|stats .*)$");
     private static final String[] LCD_SELECTOR_ARG_NAMES = { "selector" };
     private static final String[] IMAGE_STORE_ARG_NAMES = { "image name", "image data" };
     private static final String[] IMAGE_SHOW_ARG_NAMES = { "image name", "selector" };
+    private static final String[] IMAGE_SHOW_REGION_ARG_NAMES = { "image name", "selector", "x", "y", "width", "height" };
     private static final String[] IMAGE_CLEAR_ARG_NAMES = { "image name" };
 
     protected static final int PWM_RANGE = 1000;
-//    protected static final ImageSerializer IMAGE_SERIALIZER = new ImageSerializer888();
-//    protected static final ImageSerializer IMAGE_SERIALIZER = new ImageSerializer565();
-    protected static final ImageSerializer IMAGE_SERIALIZER = new ImageSerializer444();
+//    protected static final ImageSerializer IMAGE_SERIALIZER = new RasterImageSerializer(Format.RGB888);
+//    protected static final ImageSerializer IMAGE_SERIALIZER = new RasterImageSerializer(Format.RGB565);
+    protected static final ImageSerializer IMAGE_SERIALIZER = new RasterImageSerializer(Format.RGB444);
 
     private final byte[] secret;
     private final Cache<String,byte[]> imageDataCache;
-    private final ConClient delegate;
+    private final FrameHistory frameHistory = new FrameHistory();
+    private final List<ConClient> delegates = new ArrayList<>();
     private final ButtonDownSupplier buttonDownSupplier;
+    private final String[] maskResponses; // guarded by buttonDownSupplier
+
+    private ButtonScanner buttonScanner;
 
     private Con con;
     private ServerSocket serverSocket;
     private Supplier<Socket> socketSupplier;
-    private volatile boolean running = false;
-    private PrintWriter out;
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final Object displayLock = new Object(); // display writes from different sessions take turns
+    private final Object buttonLock = new Object();
 
     public ConServer() {
         this.secret = loadSecret();
-        this.imageDataCache = new Cache<>(256);
+        this.imageDataCache = new Cache<>(getImageCacheLimit(), data -> data.length);
         if (secret == null) {
             System.err.println("Console service is insecure! No secret has been set to protect it from unauthorized access.");
         } else if (secret.length < 4) {
             System.err.println("The provided secret is too short. It will not work!");
         }
-        SocketAddress delegateAddress = getDelegate();
-        if (delegateAddress != null) {
-            BlockingQueue<Command> delegateQueue = new ArrayBlockingQueue<>(4, false);
-            delegate = new ConClient(delegateAddress, secret, delegateQueue, delegateQueue::offer);
-        } else {
-            delegate = null;
+        for (SocketAddress delegateAddress : getDelegates()) {
+            BlockingQueue<Command> delegateQueue = new ArrayBlockingQueue<>(16, false); // shared by every session
+            delegates.add(new ConClient(delegateAddress, secret, delegateQueue, delegateQueue::offer));
         }
         buttonDownSupplier = new ButtonDownSupplier(12);
+        maskResponses = new String[1 << buttonDownSupplier.size()];
     }
 
     @SuppressWarnings("InfiniteLoopStatement")
     public void run() {
         this.con = getCon();
+        this.buttonScanner = new ButtonScanner(con, buttonDownSupplier.size(), delegates.size());
+        for (int i = 0; i < delegates.size(); i++) {
+            int index = i;
+            ConClient delegate = delegates.get(i);
+            delegate.setEventHandler(event -> remoteButtonEvent(index, event));
+            delegate.setDisconnectHandler(() -> buttonScanner.clearRemote(index));
+            Thread thread = new Thread(delegate, "Con Delegate " + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
         while (true) {
-            try (Socket socket = getSocketSupplier().get()) {
-                running = true;
-                socket.setTcpNoDelay(true);
-                socket.setSoTimeout(getIdleTimeout());
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
-                PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF_8));
-                boolean auth = secret == null;
-                String expectAuth = null;
-                boolean done = false;
-                while (!done) {
-                    String rawCommand = in.readLine();
-                    if (rawCommand == null) {
-                        done = true;
-                        continue; // disconnected
-                    }
-                    String[] command = rawCommand.split(" ", 2);
-                    if (command.length == 0) continue;
-                    String response = "ok";
-                    try {
-                        switch (command[0]) {
-                            case "":
-                                response = "";
-                                break;
-                            case "hello":
-                                String challenge = Sha256.digest(new Date().toString().getBytes(UTF_8));
-                                response = "auth-challenge " + challenge;
-                                expectAuth = Sha256.hmac(secret, challenge);
-                                break;
-                            case "auth":
-                                if (expectAuth == null) {
-                                    response = "err must send \"hello\" command immediately before sending \"auth\" command";
-                                } else if (secret == null) {
-                                    response = "auth-success";
-                                } else {
-                                    auth = expectAuth.equals(rawCommand.substring(4).trim());
-                                    response = auth ? "auth-success" : "err auth challenge response did not match";
-                                }
-                                break;
-                            case "help":
-                                if (secret == null) {
-                                    socket.setSoTimeout(300000);
-                                }
-                                response = help(args(rawCommand.substring(4)), auth);
-                                break;
-                            case "ping":
-                                if (delegate != null) {
-                                    response = delegate.sendCommand(new DelegatedCommand(command[0], args(rawCommand.substring(4)), Pattern.compile("^pong.*$"))).get();
-                                } else {
-                                    response = "pong" + rawCommand.substring(4);
-                                }
-                                break;
-                            case "image":
-                                checkAuth("image", auth);
-                                if (delegate != null) {
-                                    List<String> argList = args(rawCommand.substring(5));
-                                    response = delegate.sendCommand(new DelegatedCommand(command[0], argList, MATCH_OK)).get();
-                                    image(argList);
-                                } else {
-                                    response = image(args(rawCommand.substring(5)));
-                                }
-                                break;
-                            case "lcd":
-                                checkAuth("lcd", auth);
-                                if (delegate != null) {
-                                    List<String> argList = args(rawCommand.substring(3));
-                                    response = delegate.sendCommand(new DelegatedCommand(command[0], argList, MATCH_OK)).get();
-                                    lcd(argList);
-                                } else {
-                                    response = lcd(args(rawCommand.substring(3)));
-                                }
-                                break;
-                            case "scan":
-                                checkAuth("scan", auth);
-                                if (delegate != null) {
-                                    response = scan(delegate.sendCommand(new DelegatedCommand(command[0], Collections.emptyList(), MATCH_DOWN)));
-                                } else {
-                                    response = scan(null);
-                                }
-                                break;
-                            case "test":
-                                if (secret == null) {
-                                    socket.setSoTimeout(300000);
-                                }
-                                checkAuth("test", auth);
-                                Future<String> future = null;
-                                if (delegate != null) {
-                                    future = delegate.sendCommand(new DelegatedCommand(command[0], Collections.emptyList(), MATCH_OK));
-                                }
+            try {
+                Socket socket = getSocketSupplier().get();
+                Thread session = new Thread(() -> serve(socket), "Con Session " + socket.getRemoteSocketAddress());
+                session.setDaemon(true);
+                session.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Runs one client's session on its own thread. Several sessions may be open at once, so a diagnostic tool can
+     * attach while the communicator is connected; display writes from all of them take turns on {@code displayLock}.
+     */
+    private void serve(Socket accepted) {
+        ButtonScanner.Listener subscription = null;
+        try (Socket socket = accepted) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(getIdleTimeout());
+            Connection connection = new Connection(socket);
+            boolean auth = secret == null;
+            String expectAuth = null;
+            long sequence = -1; // responses are numbered after "seq on"
+            boolean done = false;
+            while (!done) {
+                Frame frame = connection.receive();
+                if (frame == null) {
+                    done = true;
+                    continue; // disconnected
+                }
+                String rawCommand = frame.getText();
+                String[] command = rawCommand != null ? rawCommand.split(" ", 2) : new String[]{ "image" };
+                if (command.length == 0) continue;
+                boolean switchToBinary = false;
+                boolean numbered = sequence >= 0;
+                String response = "ok";
+                try {
+                    switch (command[0]) {
+                        case "":
+                            response = "";
+                            break;
+                        case "hello":
+                            String challenge = Sha256.digest(new Date().toString().getBytes(UTF_8));
+                            response = "auth-challenge " + challenge;
+                            expectAuth = Sha256.hmac(secret, challenge);
+                            break;
+                        case "auth":
+                            if (expectAuth == null) {
+                                response = "err must send \"hello\" command immediately before sending \"auth\" command";
+                            } else if (secret == null) {
+                                response = "auth-success";
+                            } else {
+                                auth = expectAuth.equals(rawCommand.substring(4).trim());
+                                response = auth ? "auth-success" : "err auth challenge response did not match";
+                            }
+                            break;
+                        case "binary":
+                            checkAuth("binary", auth);
+                            if (connection.isBinary()) {
+                                throw new IllegalStateException("already in binary mode");
+                            }
+                            switchToBinary = true;
+                            response = "ok binary";
+                            break;
+                        case "codec":
+                            checkAuth("codec", auth);
+                            String codec = rawCommand.substring(5).trim();
+                            if (!FrameCodec.NAME.equals(codec)) {
+                                throw new IllegalArgumentException("unsupported codec \"" + codec + "\"");
+                            }
+                            response = "ok codec " + codec;
+                            break;
+                        case "seq":
+                            numbered = false;
+                            switch (rawCommand.substring(3).trim()) {
+                                case "on":
+                                    sequence = 0;
+                                    break;
+                                case "off":
+                                    sequence = -1;
+                                    break;
+                                default:
+                                    response = "err expected \"on\" or \"off\"";
+                                    break;
+                            }
+                            break;
+                        case "events":
+                            checkAuth("events", auth);
+                            switch (rawCommand.substring(6).trim()) {
+                                case "on":
+                                    if (subscription == null) {
+                                        subscription = (b, down) -> push(connection, (down ? "event down " : "event up ") + b);
+                                        buttonScanner.start();
+                                        buttonScanner.addListener(subscription);
+                                    }
+                                    break;
+                                case "off":
+                                    buttonScanner.removeListener(subscription);
+                                    subscription = null;
+                                    break;
+                                default:
+                                    response = "err expected \"on\" or \"off\"";
+                                    break;
+                            }
+                            break;
+                        case "help":
+                            if (secret == null) {
+                                socket.setSoTimeout(300000);
+                            }
+                            response = help(args(rawCommand.substring(4)), auth);
+                            break;
+                        case "ping":
+                            List<Future<String>> pongs = delegate(command[0], args(rawCommand.substring(4)), MATCH_PONG);
+                            response = merge(pongs, "pong" + rawCommand.substring(4), (remote, local) -> local);
+                            break;
+                        case "image":
+                            checkAuth("image", auth);
+                            if (rawCommand == null) {
+                                response = image(frame);
+                            } else {
+                                List<String> argList = args(rawCommand.substring(5));
+                                List<Future<String>> remote = delegate(command[0], argList, MATCH_IMAGE);
+                                response = merge(remote, image(argList), this::image);
+                            }
+                            break;
+                        case "lcd":
+                            checkAuth("lcd", auth);
+                            List<String> lcdArgs = args(rawCommand.substring(3));
+                            List<Future<String>> remote = delegate(command[0], lcdArgs, MATCH_OK);
+                            response = merge(remote, lcd(lcdArgs), (r, local) -> local);
+                            break;
+                        case "scan":
+                            checkAuth("scan", auth);
+                            boolean mask;
+                            switch (rawCommand.substring(4).trim()) {
+                                case "":
+                                    mask = false;
+                                    break;
+                                case "mask":
+                                    mask = true;
+                                    break;
+                                default:
+                                    throw new IllegalArgumentException("expected \"mask\" or nothing");
+                            }
+                            response = scan(delegate(command[0], Collections.emptyList(), MATCH_DOWN), mask);
+                            break;
+                        case "test":
+                            if (secret == null) {
+                                socket.setSoTimeout(300000);
+                            }
+                            checkAuth("test", auth);
+                            List<Future<String>> tests = delegate(command[0], Collections.emptyList(), MATCH_OK);
+                            synchronized (displayLock) { // the whole sequence, without other sessions' writes
                                 lcd(Arrays.asList("reset", "hard"));
                                 lcd(Arrays.asList("wake", "0xff"));
                                 lcd(Arrays.asList("brightness", "750"));
@@ -247,67 +350,140 @@ public abstract class ConServer implements Runnable {
                                 for (int i = 0; i < 8; i++) {
                                     image(Arrays.asList("show", "@number-" + i, String.format("0x%02x", 1 << i)));
                                 }
-                                if (future != null) {
-                                    response = future.get();
-                                }
-                                break;
-                            case "exit":
-                            case "quit":
-                                done = true;
-                                response = "goodbye";
-                                break;
-                            default:
-                                response = String.format("err unknown command %s", command[0]);
-                                break;
-                        }
-                    } catch (Exception e) {
-                        if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
-                            e = (Exception)e.getCause();
-                        }
-                        String message = e.getMessage();
-                        response = message == null ? "err" : "err " + message;
+                            }
+                            response = merge(tests, "ok", (r, local) -> local);
+                            break;
+                        case "exit":
+                        case "quit":
+                            done = true;
+                            response = "goodbye";
+                            break;
+                        default:
+                            response = String.format("err unknown command %s", command[0]);
+                            break;
+                    }
+                } catch (Exception e) {
+                    if (e instanceof ExecutionException && e.getCause() instanceof Exception) {
+                        e = (Exception)e.getCause();
+                    }
+                    String message = e.getMessage();
+                    response = message == null ? "err" : "err " + message;
+                    expectAuth = null;
+                    e.printStackTrace();
+                } finally {
+                    if (!"hello".equals(command[0])) {
                         expectAuth = null;
-                        e.printStackTrace();
-                    } finally {
-                        if (!"hello".equals(command[0])) {
-                            expectAuth = null;
-                        }
                     }
-                    out.println(response);
-                    out.flush();
                 }
-            } catch (SocketTimeoutException e) {
-                // don't care
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                running = false;
+                if (numbered) {
+                    // the number goes on the status line, after any help text
+                    int i = response.lastIndexOf('\n') + 1;
+                    response = response.substring(0, i) + "[" + (++sequence) + "] " + response.substring(i);
+                }
+                synchronized (connection) { // button events may be pushed from another thread
+                    connection.send(Frame.text(response));
+                    connection.flush();
+                    if (switchToBinary) {
+                        connection.setBinary(true);
+                    }
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // don't care
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (subscription != null) {
+                buttonScanner.removeListener(subscription);
             }
+            sessions.decrementAndGet();
         }
     }
 
-    private Iterable<Boolean> parseButtons(String down) {
-        for (int i = 0, j = 5, l = Math.min(down.length() - 5, buttonDownSupplier.size()); i < l; i++, j++) {
-            buttonDownSupplier.set(i, Character.isLetterOrDigit(down.charAt(j)));
+    private void push(Connection connection, String event) {
+        try {
+            synchronized (connection) {
+                connection.send(Frame.text(event));
+                connection.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // the connection's own thread will notice it has closed
+        }
+    }
+
+    private void remoteButtonEvent(int delegate, String event) {
+        Matcher matcher = MATCH_EVENT.matcher(event);
+        if (matcher.matches()) {
+            buttonScanner.setRemote(delegate, Integer.parseInt(matcher.group(2)), "down".equals(matcher.group(1)));
+        }
+    }
+
+    /**
+     * Sends a command to every delegate without waiting for their answers, so the caller can run it locally in the
+     * meantime. Each delegate may have delegates of its own, so a command spreads through the whole tree at once.
+     */
+    private List<Future<String>> delegate(String command, List<String> args, Pattern responsePattern) {
+        List<Future<String>> responses = new ArrayList<>(delegates.size());
+        for (ConClient delegate : delegates) {
+            responses.add(delegate.sendCommand(new DelegatedCommand(command, args, responsePattern)));
+        }
+        return responses;
+    }
+
+    /**
+     * @param compressedFrame The same command with compressed image data, sent to delegates that accept it.
+     */
+    private List<Future<String>> delegate(Frame frame, Frame compressedFrame, Pattern responsePattern) {
+        List<Future<String>> responses = new ArrayList<>(delegates.size());
+        for (ConClient delegate : delegates) {
+            responses.add(delegate.sendCommand(new DelegatedCommand(frame, compressedFrame, responsePattern)));
+        }
+        return responses;
+    }
+
+    /**
+     * Waits for every delegate, and folds their responses into the local one. A delegate that fails, or doesn't
+     * answer in time, fails the whole command.
+     */
+    private String merge(List<Future<String>> remote, String local, BinaryOperator<String> merger)
+            throws ExecutionException, InterruptedException {
+        String response = local;
+        long deadline = System.currentTimeMillis() + getDelegateTimeout();
+        for (Future<String> future : remote) {
+            response = merger.apply(await(future, deadline), response);
+        }
+        return response;
+    }
+
+    /**
+     * Waits for a delegate's answer until the deadline, so a delegate that has gone quiet can't hang the session.
+     */
+    private static String await(Future<String> future, long deadline) throws ExecutionException, InterruptedException {
+        try {
+            return future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new ExecutionException(new TimeoutException("delegate timed out"));
         }
-        return buttonDownSupplier;
     }
 
     protected synchronized Supplier<Socket> getSocketSupplier() throws IOException {
         if (serverSocket == null) {
-            serverSocket = new ServerSocket(65432, 1);
-            BlockingQueue<Socket> q = new ArrayBlockingQueue<>(1);
+            int maxSessions = getMaxSessions();
+            serverSocket = new ServerSocket(65432, maxSessions);
+            BlockingQueue<Socket> q = new ArrayBlockingQueue<>(maxSessions);
             Thread t = new Thread(() -> {
                 while (!serverSocket.isClosed()) {
                     try {
                         Socket socket = serverSocket.accept();
-                        if (running) {
-                            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF_8));
+                        if (sessions.incrementAndGet() > maxSessions) {
+                            sessions.decrementAndGet();
+                            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), UTF_8));
                             out.println("console busy, goodbye");
                             out.flush();
                             socket.close();
                         } else {
-                            q.offer(socket);
+                            q.add(socket);
                         }
                     } catch (IOException e) {
                         e.printStackTrace();
@@ -359,9 +535,9 @@ public abstract class ConServer implements Runnable {
             buffer.append("\tAvailable commands:\n");
             buffer.append("\t\n");
             if (auth) {
-                buffer.append("\tauth, exit, hello, help, image, lcd, ping, quit, scan, test\n");
+                buffer.append("\tauth, binary, codec, events, exit, hello, help, image, lcd, ping, quit, scan, seq, test\n");
             } else {
-                buffer.append("\tauth, exit, hello, help, ping, quit\n");
+                buffer.append("\tauth, exit, hello, help, ping, quit, seq\n");
             }
             buffer.append("\tEnter 'help [command]' for help on a specific command\n");
             buffer.append("ok");
@@ -380,6 +556,57 @@ public abstract class ConServer implements Runnable {
                 buffer.append("\terr [message]\n");
                 buffer.append("ok");
                 break;
+            case "binary":
+                buffer.append("\tUsage: binary\n");
+                buffer.append("\t\n");
+                buffer.append("\tSwitches this connection to length-prefixed binary frames. Every\n");
+                buffer.append("\tframe is a 32-bit length followed by an opcode byte, a selector\n");
+                buffer.append("\tbyte, a length-prefixed name and a raw payload. Opcode 0x01 carries\n");
+                buffer.append("\ta text command, 0x02 stores raw image data under the name and 0x03\n");
+                buffer.append("\tshows the named image on the selected displays. After 'codec lz',\n");
+                buffer.append("\topcode 0x04 stores compressed image data. Every response is\n");
+                buffer.append("\ta text frame. The connection stays binary until it is closed.\n");
+                buffer.append("\t\n");
+                buffer.append("\tResponses:\n");
+                buffer.append("\t\n");
+                buffer.append("\tok binary\n");
+                buffer.append("\terr [message]\n");
+                buffer.append("ok");
+                break;
+            case "codec":
+                buffer.append("\tUsage: codec lz\n");
+                buffer.append("\t\n");
+                buffer.append("\tAsks whether this console accepts compressed image data. 'lz' is a\n");
+                buffer.append("\tlength-prefixed stream of literal runs and back references, suited\n");
+                buffer.append("\tto flat button faces. Once accepted, images may be stored with\n");
+                buffer.append("\t'image store-lz' or binary opcode 0x04.\n");
+                buffer.append("\t\n");
+                buffer.append("\tResponses:\n");
+                buffer.append("\t\n");
+                buffer.append("\tok codec lz\n");
+                buffer.append("\terr [message]\n");
+                buffer.append("ok");
+                break;
+            case "events":
+                buffer.append("\tUsage: events [on|off]\n");
+                buffer.append("\t\n");
+                buffer.append("\tTurns button events on or off for this connection. While events are\n");
+                buffer.append("\ton, the buttons are scanned and debounced locally, and each change is\n");
+                buffer.append("\tpushed to the client as a line between responses. Buttons already\n");
+                buffer.append("\tdown are reported when events are turned on. Events are never\n");
+                buffer.append("\tnumbered by 'seq'. 'scan' still works and reports the same state.\n");
+                buffer.append("\t\n");
+                buffer.append("\tResponses:\n");
+                buffer.append("\t\n");
+                buffer.append("\tok\n");
+                buffer.append("\terr [message]\n");
+                buffer.append("\t\n");
+                buffer.append("\tEvents:\n");
+                buffer.append("\t\n");
+                buffer.append("\tevent down [button]\n");
+                buffer.append("\tevent up [button]\n");
+                buffer.append("ok");
+                break;
             case "exit":
                 buffer.append("\tUsage exit\n");
                 buffer.append("\t\n");
@@ -414,21 +641,38 @@ public abstract class ConServer implements Runnable {
                 break;
             case "image":
                 buffer.append("\tUsage: image store [name] [base64-data]\n");
+                buffer.append("\t       image store-lz [name] [base64-data]\n");
                 buffer.append("\t       image show [name] [selector]\n");
+                buffer.append("\t       image show-or-need [name] [selector]\n");
+                buffer.append("\t       image show-region [name] [selector] [x] [y] [width] [height]\n");
+                buffer.append("\t       image have [name...]\n");
+                buffer.append("\t       image stats\n");
                 buffer.append("\t       image clear [name]\n");
                 buffer.append("\t\n");
                 buffer.append("\tManipulates images that can be displayed. The [name] can only\n");
                 buffer.append("\tcontain letters or numbers. The base-64 data must contain a\n");
                 buffer.append("\trenderable uncompressed image in 12-bit, 16-bit or 24-bit packed\n");
-                buffer.append("\tform. The [selector] is an 8-bit hexadecimal selector indicating which\n");
+                buffer.append("\tform, or for 'store-lz' the same compressed as described by 'codec'.\n");
+                buffer.append("\tThe [selector] is an 8-bit hexadecimal selector indicating which\n");
                 buffer.append("\tdisplay or displays the image will be sent. The [name] may also be\n");
                 buffer.append("\tone of the built in test images:\n");
                 buffer.append("\t    @aspect-ratio-grid, @black, @checkerboard, @color-bars\n");
                 buffer.append("\t    @number-[0-7], @skin-tones or @white\n");
                 buffer.append("\t\n");
+                buffer.append("\t'show' only writes the part of the image that differs from what the\n");
+                buffer.append("\tdisplays last showed. 'show-region' writes just the given rectangle.\n");
+                buffer.append("\t'show-or-need' shows the image if it is stored, otherwise it answers\n");
+                buffer.append("\t'need' and the image should be stored before showing it. 'have'\n");
+                buffer.append("\tanswers with the subset of the given names that are stored. 'stats'\n");
+                buffer.append("\treports the image store's entry count, size in bytes, byte limit,\n");
+                buffer.append("\thit count, miss count and eviction count.\n");
+                buffer.append("\t\n");
                 buffer.append("\tResponses:\n");
                 buffer.append("\t\n");
                 buffer.append("\tok\n");
+                buffer.append("\tneed [name]\n");
+                buffer.append("\thave [name...]\n");
+                buffer.append("\tstats entries=[n] bytes=[n] limit=[n] hits=[n] misses=[n] evictions=[n]\n");
                 buffer.append("\terr [message]\n");
                 buffer.append("ok");
                 break;
@@ -476,14 +720,32 @@ public abstract class ConServer implements Runnable {
                 buffer.append("ok");
                 break;
             case "scan":
-                buffer.append("\tUsage: scan\n");
+                buffer.append("\tUsage: scan [mask]\n");
                 buffer.append("\t\n");
                 buffer.append("\tScans the input buttons and returns an array of flags, '-' or 'x',\n");
-                buffer.append("\twhere 'x' indicates that a particular button is down.\n");
+                buffer.append("\twhere 'x' indicates that a particular button is down. With 'mask' the\n");
+                buffer.append("\tbuttons are returned as a hex number instead, where bit n is set when\n");
+                buffer.append("\tbutton n is down.\n");
                 buffer.append("\t\n");
                 buffer.append("\tResponses:\n");
                 buffer.append("\t\n");
                 buffer.append("\tdown [flags]\n");
+                buffer.append("\tdown 0x[mask]\n");
+                buffer.append("ok");
+                break;
+            case "seq":
+                buffer.append("\tUsage: seq [on|off]\n");
+                buffer.append("\t\n");
+                buffer.append("\tTurns response numbering on or off. While numbering is on, every\n");
+                buffer.append("\tresponse is prefixed with its request number in brackets, starting\n");
+                buffer.append("\twith [1] for the first request after 'seq on'. Requests are always\n");
+                buffer.append("\tanswered in order, so clients sending several commands without\n");
+                buffer.append("\twaiting can use the number to check that responses line up.\n");
+                buffer.append("\t\n");
+                buffer.append("\tResponses:\n");
+                buffer.append("\t\n");
+                buffer.append("\tok\n");
+                buffer.append("\terr [message]\n");
                 buffer.append("ok");
                 break;
             case "test":
@@ -556,6 +818,12 @@ public abstract class ConServer implements Runnable {
             }
             matchers[i] = matcher;
         }
+        synchronized (displayLock) {
+            return writeLcd(args, matchers, parseSelector);
+        }
+    }
+
+    private String writeLcd(List<String> args, Matcher[] matchers, boolean parseSelector) throws IOException {
         String selector = null;
         byte selectorByte = 0;
         if (parseSelector) {
@@ -569,6 +837,7 @@ public abstract class ConServer implements Runnable {
             } else {
                 selectorByte = (byte)Integer.parseInt(selector.substring(2), 16);
             }
+            frameHistory.forget(selectorByte); // whatever these displays show afterward is unknown
         }
         switch (args.get(0)) {
             case "reset":
@@ -614,14 +883,24 @@ public abstract class ConServer implements Runnable {
         Pattern[] patterns;
         String[] argNames;
         switch (args.get(0)) {
+            case "have":
+                return have(args.subList(1, args.size()));
+            case "stats":
+                return stats();
             case "store":
+            case "store-lz":
                 patterns = MATCH_IMAGE_STORE_ARGS;
                 argNames = IMAGE_STORE_ARG_NAMES;
                 break;
             case "show":
+            case "show-or-need":
                 patterns = MATCH_IMAGE_SHOW_ARGS;
                 argNames = IMAGE_SHOW_ARG_NAMES;
                 break;
+            case "show-region":
+                patterns = MATCH_IMAGE_SHOW_REGION_ARGS;
+                argNames = IMAGE_SHOW_REGION_ARG_NAMES;
+                break;
             case "clear":
                 patterns = MATCH_IMAGE_CLEAR_ARGS;
                 argNames = IMAGE_CLEAR_ARG_NAMES;
@@ -639,49 +918,36 @@ public abstract class ConServer implements Runnable {
             }
         }
         String imageName = args.get(1);
-        byte[] data;
         switch (args.get(0)) {
             case "store":
-                data = Base64.getDecoder().decode(args.get(2));
-                imageDataCache.put(imageName, data);
+                storeImage(imageName, Base64.getDecoder().decode(args.get(2)));
+                break;
+            case "store-lz":
+                storeImage(imageName, FrameCodec.decompress(Base64.getDecoder().decode(args.get(2))));
                 break;
             case "show":
-                switch (imageName) {
-                    case "@aspect-ratio-grid":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getAspectRatioGrid().getImage());
-                        break;
-                    case "@black":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getSolid(Color.BLACK).getImage());
-                        break;
-                    case "@checkerboard":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getCheckerboard().getImage());
-                        break;
-                    case "@color-bars":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getColorBars().getImage());
-                        break;
-                    case "@skin-tones":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getSkinTones().getImage());
-                        break;
-                    case "@white":
-                        data = IMAGE_SERIALIZER.serialize(TestImage.getSolid(Color.WHITE).getImage());
-                        break;
-                    default:
-                        if (imageName.matches("@number-[0-7]")) {
-                            data = IMAGE_SERIALIZER.serialize(TestImage.getNumber(imageName.charAt(8) - '0').getImage());
-                        } else {
-                            data = imageDataCache.get(imageName);
-                        }
-                        break;
-                }
-                if (data == null) {
-                    throw new IllegalStateException("no stored image named \"" + imageName + "\" was found");
+            case "show-or-need":
+                boolean orNeed = "show-or-need".equals(args.get(0));
+                if (orNeed && imageName.charAt(0) != '@' && !imageDataCache.contains(imageName)) {
+                    return "need " + imageName;
                 }
                 String selector = args.get(2);
                 if ("0x00".equals(selector)) {
                     return "ok";
                 }
-                byte selectorByte = (byte)Integer.parseInt(selector.substring(2), 16);
-                con.updateImage(selectorByte, data);
+                showImage(imageName, (byte)Integer.parseInt(selector.substring(2), 16));
+                break;
+            case "show-region":
+                Rectangle region = new Rectangle(Integer.parseInt(args.get(3)),
+                                                 Integer.parseInt(args.get(4)),
+                                                 Integer.parseInt(args.get(5)),
+                                                 Integer.parseInt(args.get(6)));
+                if (!new Rectangle(FrameHistory.WIDTH, FrameHistory.HEIGHT).contains(region)) {
+                    throw new IllegalArgumentException("region is outside the display: " + args.subList(3, 7));
+                }
+                if (!"0x00".equals(args.get(2))) {
+                    showImageRegion(imageName, (byte)Integer.parseInt(args.get(2).substring(2), 16), region);
+                }
                 break;
             case "clear":
                 if ("*".equals(imageName)) {
@@ -694,21 +960,175 @@ public abstract class ConServer implements Runnable {
         return "ok";
     }
 
-    public String scan(Future<String> mergeResult) throws ExecutionException, InterruptedException {
-        StringBuilder builder = new StringBuilder(18);
-        builder.append("down ");
-        con.readButtons((b) -> builder.append(b ? 'x' : '-'));
-        if (mergeResult != null) {
-            String remoteResult = mergeResult.get();
-            if (remoteResult.startsWith("down") && remoteResult.length() == builder.length()) {
-                for (int i = 0, l = builder.length(); i < l; i++) {
-                    if (builder.charAt(i) == '-') {
-                        builder.setCharAt(i, remoteResult.charAt(i));
-                    }
+    private String have(List<String> imageNames) {
+        StringBuilder buffer = new StringBuilder("have");
+        for (String imageName : imageNames) {
+            if (!MATCH_IMAGE_NAME.matcher(imageName).find()) {
+                throw new IllegalArgumentException("bad image name for \"image have\": " + imageName);
+            }
+            if (imageDataCache.contains(imageName)) {
+                buffer.append(' ').append(imageName);
+            }
+        }
+        return buffer.toString();
+    }
+
+    private String stats() {
+        CacheStats stats = imageDataCache.getStats();
+        return String.format("stats entries=%d bytes=%d limit=%d hits=%d misses=%d evictions=%d",
+                             imageDataCache.getCount(),
+                             imageDataCache.getSize(),
+                             imageDataCache.getLimit(),
+                             stats.hitCount(),
+                             stats.missCount(),
+                             stats.evictionCount());
+    }
+
+    /**
+     * Combines the delegate's answer to an image command with our own. Images must be present on both consoles to
+     * count as stored, so "have" lists are intersected and a "need" from either side wins.
+     */
+    private String image(String remote, String local) {
+        if (remote.startsWith("have") && local.startsWith("have")) {
+            Set<String> names = new HashSet<>(args(remote.substring(4)));
+            StringBuilder buffer = new StringBuilder("have");
+            for (String name : args(local.substring(4))) {
+                if (names.contains(name)) {
+                    buffer.append(' ').append(name);
                 }
             }
+            return buffer.toString();
+        }
+        return local.startsWith("need ") || local.startsWith("stats ") ? local : remote;
+    }
+
+    protected String image(Frame frame) throws IOException, ExecutionException, InterruptedException {
+        String name = frame.getName();
+        Pattern namePattern = frame.getOpcode() == Frame.OP_IMAGE_SHOW ? MATCH_IMAGE_NAME_OR_BUILT_IN : MATCH_IMAGE_NAME;
+        if (!namePattern.matcher(name).find()) {
+            throw new IllegalArgumentException("bad image name: " + name);
+        }
+        List<Future<String>> remote;
+        if (frame.getOpcode() == Frame.OP_IMAGE_STORE_LZ) {
+            // decoded once, into the array that is cached and later sent to the displays as it is
+            byte[] data = FrameCodec.decompress(frame.getPayload());
+            remote = delegate(Frame.imageStore(name, data), frame, MATCH_OK);
+            storeImage(name, data);
+            return merge(remote, "ok", (r, local) -> local);
+        }
+        remote = delegate(frame, null, MATCH_OK);
+        switch (frame.getOpcode()) {
+            case Frame.OP_IMAGE_STORE:
+                storeImage(name, frame.getPayload());
+                break;
+            case Frame.OP_IMAGE_SHOW:
+                if (frame.getSelector() != 0) {
+                    showImage(name, frame.getSelector());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("unrecognized opcode 0x%02x", frame.getOpcode()));
+        }
+        return merge(remote, "ok", (r, local) -> local);
+    }
+
+    protected void storeImage(String imageName, byte[] data) {
+        imageDataCache.put(imageName, data);
+    }
+
+    protected byte[] loadImage(String imageName) throws IOException {
+        byte[] data;
+        switch (imageName) {
+            case "@aspect-ratio-grid":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getAspectRatioGrid().getImage());
+                break;
+            case "@black":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getSolid(Color.BLACK).getImage());
+                break;
+            case "@checkerboard":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getCheckerboard().getImage());
+                break;
+            case "@color-bars":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getColorBars().getImage());
+                break;
+            case "@skin-tones":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getSkinTones().getImage());
+                break;
+            case "@white":
+                data = IMAGE_SERIALIZER.serialize(TestImage.getSolid(Color.WHITE).getImage());
+                break;
+            default:
+                if (imageName.matches("@number-[0-7]")) {
+                    data = IMAGE_SERIALIZER.serialize(TestImage.getNumber(imageName.charAt(8) - '0').getImage());
+                } else {
+                    data = imageDataCache.get(imageName);
+                }
+                break;
+        }
+        if (data == null) {
+            throw new IllegalStateException("no stored image named \"" + imageName + "\" was found");
+        }
+        return data;
+    }
+
+    protected void showImage(String imageName, byte selectorByte) throws IOException {
+        byte[] data = loadImage(imageName);
+        synchronized (displayLock) { // the history must change in the same order as the displays
+            Rectangle dirty = frameHistory.update(selectorByte, data);
+            if (dirty == null) {
+                return; // already showing
+            }
+            if (FrameHistory.isFullFrame(dirty)) {
+                con.updateImage(selectorByte, data);
+            } else {
+                con.updateImage(selectorByte, data, dirty);
+            }
+        }
+    }
+
+    protected void showImageRegion(String imageName, byte selectorByte, Rectangle region) throws IOException {
+        byte[] data = loadImage(imageName);
+        region = FrameHistory.align(data, region);
+        synchronized (displayLock) {
+            frameHistory.forget(selectorByte); // the displays now show a mix of frames
+            con.updateImage(selectorByte, data, region);
+        }
+    }
+
+    public String scan(List<Future<String>> remote, boolean mask) throws ExecutionException, InterruptedException {
+        int down;
+        if (buttonScanner.isRunning()) {
+            down = buttonScanner.readButtons(); // don't fight the scanner for the pins
+        } else {
+            synchronized (buttonLock) { // nor another session's scan
+                down = con.readButtons();
+            }
+        }
+        long deadline = System.currentTimeMillis() + getDelegateTimeout();
+        for (Future<String> future : remote) {
+            String remoteResult = await(future, deadline);
+            if (remoteResult.startsWith("down ")) {
+                down |= ScanButtonsCommand.parseButtons(remoteResult, 5);
+            }
+        }
+        synchronized (buttonDownSupplier) { // shared by every session
+            int buttons = buttonDownSupplier.size();
+            buttonDownSupplier.setMask(down & ((1 << buttons) - 1));
+            if (mask) {
+                int masked = buttonDownSupplier.getMask();
+                String response = maskResponses[masked]; // polled 20 times a second, so each answer is made once
+                if (response == null) {
+                    response = maskResponses[masked] = "down " + ScanButtonsCommand.formatButtons(masked, buttons);
+                }
+                return response;
+            }
+            char[] flags = new char[buttons];
+            int i = 0;
+            for (boolean isDown : buttonDownSupplier) {
+                flags[i++] = isDown ? 'x' : '-';
+            }
+            return "down " + new String(flags);
         }
-        return builder.toString();
     }
 
     private static byte[] loadSecret() {
@@ -723,6 +1143,23 @@ public abstract class ConServer implements Runnable {
         }
     }
 
+    public long getImageCacheLimit() {
+        try {
+            // 16MB holds about 540 12-bit or 270 24-bit images
+            return Long.parseLong(System.getProperty("con.image.cache.bytes", "16777216"));
+        } catch (NumberFormatException e) {
+            return 16777216L;
+        }
+    }
+
+    public int getMaxSessions() {
+        try {
+            return Math.max(1, Integer.parseInt(System.getProperty("con.network.sessions", "4")));
+        } catch (NumberFormatException e) {
+            return 4;
+        }
+    }
+
     public int getIdleTimeout() {
         try {
             return Integer.parseInt(System.getProperty("con.network.idle.timeout", "2500"));
@@ -731,23 +1168,42 @@ public abstract class ConServer implements Runnable {
         }
     }
 
-    public SocketAddress getDelegate() {
+    /**
+     * @return How long to wait for the delegates to answer a command, in milliseconds.
+     */
+    public int getDelegateTimeout() {
         try {
-            String host = System.getProperty("con.network.delegate");
-            if (host != null) {
-                int port = 65432;
-                int colon;
-                if ((colon = host.indexOf(":")) < 0) {
-                    port = Integer.parseInt(host.substring(colon));
+            return Math.max(1, Integer.parseInt(System.getProperty("con.network.delegate.timeout", "5000")));
+        } catch (NumberFormatException e) {
+            return 5000;
+        }
+    }
+
+    /**
+     * @return The consoles named by con.network.delegate, a comma separated list of host[:port].
+     */
+    public List<SocketAddress> getDelegates() {
+        List<SocketAddress> delegates = new ArrayList<>();
+        String hosts = System.getProperty("con.network.delegate");
+        if (hosts != null) {
+            for (String host : hosts.split(",")) {
+                host = host.trim();
+                try {
+                    int port = 65432;
+                    int colon = host.indexOf(":");
+                    if (colon >= 0) {
+                        port = Integer.parseInt(host.substring(colon + 1));
+                        host = host.substring(0, colon);
+                    }
+                    if (host.length() > 0) {
+                        delegates.add(new InetSocketAddress(InetAddress.getByName(host), port));
+                    }
+                } catch (NumberFormatException | UnknownHostException e) {
+                    e.printStackTrace();
                 }
-                return new InetSocketAddress(InetAddress.getByName(host), port);
-            } else {
-                return null;
             }
-        } catch (NumberFormatException | UnknownHostException e) {
-            e.printStackTrace();
-            return null;
         }
+        return delegates;
     }
 
     public static void main(String[] args) throws IOException {
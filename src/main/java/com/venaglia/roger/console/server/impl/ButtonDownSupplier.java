@@ -25,18 +25,36 @@ import java.util.NoSuchElementException;
  */
 public class ButtonDownSupplier implements Iterable<Boolean> {
 
-    private final boolean[] buffer;
+    private final int size;
+
+    private int mask;
 
     public ButtonDownSupplier(int size) {
-        this.buffer = new boolean[size];
+        assert size > 0 && size <= 32;
+        this.size = size;
     }
 
     public int size() {
-        return buffer.length;
+        return size;
     }
 
     public void set(int index, boolean value) {
-        buffer[index] = value;
+        mask = value ? mask | (1 << index) : mask & ~(1 << index);
+    }
+
+    public boolean get(int index) {
+        return (mask & (1 << index)) != 0;
+    }
+
+    /**
+     * @return A bit for each button, bit n is set when button n is down.
+     */
+    public int getMask() {
+        return mask;
+    }
+
+    public void setMask(int mask) {
+        this.mask = mask;
     }
 
     @Override
@@ -47,13 +65,13 @@ public class ButtonDownSupplier implements Iterable<Boolean> {
 
             @Override
             public boolean hasNext() {
-                return index < buffer.length;
+                return index < size;
             }
 
             @Override
             public Boolean next() {
                 if (hasNext()) {
-                    return buffer[index++];
+                    return get(index++);
                 } else {
                     throw new NoSuchElementException();
                 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.console.server.impl;
+
+import com.venaglia.roger.console.server.Con;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Scans the button matrix in a tight local loop and reports debounced changes to its listeners. A button must read
+ * the same for several scans in a row before its new state is accepted. Buttons reported by delegate consoles are
+ * merged in, a button is down when it is down on any console.
+ *
+ * <p>Listeners are called without holding the scanner's lock, so they can do slow or blocking work, such as writing
+ * to a socket, without holding up the scan or other threads. Changes are queued under the lock and delivered in
+ * order by whichever thread finds the queue idle.
+ */
+public class ButtonScanner implements Runnable {
+
+    public interface Listener {
+        void handleButtonEvent(int button, boolean down);
+    }
+
+    private final Con con;
+    private final long intervalNanos;
+    private final int debounce;
+    private final int buttons;
+    private final int[] changing;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Queue<Change> changes = new ArrayDeque<>(); // guarded by this
+
+    private int local;
+    private final int[] remotes; // the buttons down on each delegate
+    private int remote; // the buttons down on any delegate
+    private Thread thread;
+    private boolean firing; // a thread is delivering changes
+
+    public ButtonScanner(Con con, int buttons, int delegates) {
+        this.con = con;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Integer.getInteger("con.buttons.scan.interval", 5)));
+        this.debounce = Math.max(1, Integer.getInteger("con.buttons.debounce", 3));
+        this.buttons = buttons;
+        this.changing = new int[buttons];
+        this.remotes = new int[delegates];
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "Button Scanner");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    @SuppressWarnings("InfiniteLoopStatement")
+    @Override
+    public void run() {
+        while (true) {
+            long until = System.nanoTime() + intervalNanos;
+            sample(con.readButtons());
+            for (long wait = until - System.nanoTime(); wait > 0; wait = until - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    private void sample(int down) {
+        int accepted = local;
+        int differs = down ^ accepted;
+        for (int i = 0, m = 1; i < buttons; i++, m <<= 1) {
+            if ((differs & m) == 0) {
+                changing[i] = 0;
+            } else if (++changing[i] >= debounce) {
+                changing[i] = 0;
+                accepted ^= m;
+            }
+        }
+        if (accepted != local) {
+            setLocal(accepted);
+        }
+    }
+
+    private void setLocal(int down) {
+        synchronized (this) {
+            int before = local | remote;
+            local = down;
+            queue(listeners, before, local | remote);
+        }
+        fire();
+    }
+
+    public void setRemote(int delegate, int button, boolean down) {
+        if (button >= 0 && button < buttons) {
+            synchronized (this) {
+                int m = 1 << button;
+                setRemote(delegate, down ? remotes[delegate] | m : remotes[delegate] & ~m);
+            }
+            fire();
+        }
+    }
+
+    /**
+     * Lets go of every button the delegate had down, when its connection drops and it can't say so itself.
+     */
+    public void clearRemote(int delegate) {
+        synchronized (this) {
+            setRemote(delegate, 0);
+        }
+        fire();
+    }
+
+    private void setRemote(int delegate, int down) {
+        assert Thread.holdsLock(this);
+        int before = local | remote;
+        remotes[delegate] = down;
+        remote = 0;
+        for (int r : remotes) {
+            remote |= r;
+        }
+        queue(listeners, before, local | remote);
+    }
+
+    private void queue(Collection<Listener> listeners, int before, int after) {
+        assert Thread.holdsLock(this);
+        if (before != after) {
+            changes.add(new Change(new ArrayList<>(listeners), before, after));
+        }
+    }
+
+    /**
+     * Delivers the queued changes, unless another thread already is.
+     */
+    private void fire() {
+        while (true) {
+            Change change;
+            synchronized (this) {
+                if (firing || changes.isEmpty()) {
+                    return;
+                }
+                change = changes.poll();
+                firing = true;
+            }
+            try {
+                change.fire();
+            } finally {
+                synchronized (this) {
+                    firing = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The debounced state of the buttons, in the same form as {@link Con#readButtons()}.
+     */
+    public synchronized int readButtons() {
+        return local | remote;
+    }
+
+    /**
+     * Adds the listener, and tells it about every button that is already down.
+     */
+    public void addListener(Listener listener) {
+        synchronized (this) {
+            listeners.add(listener);
+            queue(Collections.singleton(listener), 0, local | remote);
+        }
+        fire();
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private static class Change {
+
+        private final List<Listener> listeners; // as they were when the change was made
+        private final int before;
+        private final int after;
+
+        private Change(List<Listener> listeners, int before, int after) {
+            this.listeners = listeners;
+            this.before = before;
+            this.after = after;
+        }
+
+        private void fire() {
+            for (int changed = before ^ after; changed != 0; changed &= changed - 1) {
+                int button = Integer.numberOfTrailingZeros(changed);
+                boolean down = (after & (1 << button)) != 0;
+                for (Listener listener : listeners) {
+                    listener.handleButtonEvent(button, down);
+                }
+            }
+        }
+    }
+}
@@ -18,8 +18,10 @@
 package com.venaglia.roger.console.server.impl;
 
 import com.venaglia.roger.ui.Command;
+import com.venaglia.roger.ui.impl.Frame;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -35,10 +37,13 @@ import java.util.regex.Pattern;
  */
 public class DelegatedCommand implements Command, Future<String> {
 
-    private final String command;
-    private final List<String> args;
+    private final Frame frame;
+    private final Frame compressedFrame;
     private final Pattern responsePattern;
 
+    private String command;
+    private List<String> args;
+
     private State state = State.PENDING;
     private String response;
     private Exception failure;
@@ -51,21 +56,56 @@ public class DelegatedCommand implements Command, Future<String> {
         assert command != null;
         assert args != null;
         assert responsePattern != null;
+        this.frame = null;
+        this.compressedFrame = null;
         this.command = command;
         this.args = args;
         this.responsePattern = responsePattern;
     }
 
+    public DelegatedCommand(Frame frame, Pattern responsePattern) {
+        this(frame, null, responsePattern);
+    }
+
+    public DelegatedCommand(Frame frame, Frame compressedFrame, Pattern responsePattern) {
+        assert frame != null;
+        assert responsePattern != null;
+        this.frame = frame;
+        this.compressedFrame = compressedFrame;
+        this.responsePattern = responsePattern;
+    }
+
     @Override
     public String getCommand() {
+        parseFrame();
         return command;
     }
 
     @Override
     public String[] getArgs() {
+        parseFrame();
         return args.toArray(new String[args.size()]);
     }
 
+    @Override
+    public Frame getFrame() {
+        return frame;
+    }
+
+    @Override
+    public Frame getCompressedFrame() {
+        return compressedFrame;
+    }
+
+    private void parseFrame() {
+        if (command == null) {
+            // only needed when the delegate connection is in text mode
+            String[] parts = frame.toText().split(" ");
+            command = parts[0];
+            args = Arrays.asList(parts).subList(1, parts.length);
+        }
+    }
+
     @Override
     public Pattern expectedResponsePattern() {
         return responsePattern;
@@ -110,10 +150,11 @@ public class DelegatedCommand implements Command, Future<String> {
 
     @Override
     public synchronized String get() throws InterruptedException, ExecutionException {
-        do {
+        while (true) {
             switch (state) {
                 case PENDING:
                     wait();
+                    break; // check again, it may have failed
                 case SUCCEEDED:
                     return response;
                 case FAILED:
@@ -121,14 +162,14 @@ public class DelegatedCommand implements Command, Future<String> {
                 case CANCELLED:
                     throw new CancellationException();
             }
-        } while (state == State.PENDING);
-        throw new RuntimeException("Wait loop failed");
+        }
     }
 
     @Override
-    public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    public synchronized String get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
         long until = System.currentTimeMillis() + unit.toMillis(timeout);
-        do {
+        while (true) {
             switch (state) {
                 case PENDING:
                     long delay = until - System.currentTimeMillis();
@@ -136,6 +177,7 @@ public class DelegatedCommand implements Command, Future<String> {
                         throw new TimeoutException();
                     }
                     wait(Math.max(delay, 1));
+                    break; // check again, it may have failed
                 case SUCCEEDED:
                     return response;
                 case FAILED:
@@ -143,7 +185,6 @@ public class DelegatedCommand implements Command, Future<String> {
                 case CANCELLED:
                     throw new CancellationException();
             }
-        } while (state == State.PENDING);
-        throw new RuntimeException("Wait loop failed");
+        }
     }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.console.server.impl;
+
+import java.awt.Rectangle;
+
+/**
+ * Remembers the last frame sent to each display so that only the part of a new frame that differs needs to be
+ * written. Frames are 160x128 pixels, row major, in any of the 12-bit, 16-bit or 24-bit packed formats.
+ */
+public class FrameHistory {
+
+    public static final int WIDTH = 160;
+    public static final int HEIGHT = 128;
+
+    private final byte[][] last = new byte[8][];
+
+    /**
+     * Records the frame as shown on the selected displays.
+     *
+     * @return The smallest rectangle covering every pixel that changed on any of the selected displays, null if
+     *         none of them changed.
+     */
+    public synchronized Rectangle update(byte selectorByte, byte[] data) {
+        Rectangle dirty = null;
+        for (int i = 0, m = 1; i < 8; i++, m <<= 1) {
+            if ((selectorByte & m) != 0) {
+                Rectangle r = diff(last[i], data);
+                if (r != null) {
+                    dirty = dirty == null ? r : dirty.union(r);
+                }
+                last[i] = data;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Forgets what the selected displays are showing, the next frame sent to them will be written in full.
+     */
+    public synchronized void forget(byte selectorByte) {
+        for (int i = 0, m = 1; i < 8; i++, m <<= 1) {
+            if ((selectorByte & m) != 0) {
+                last[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return The rectangle covering every pixel that differs between the two frames, null if they are identical.
+     */
+    public static Rectangle diff(byte[] from, byte[] to) {
+        if (from == to) {
+            return null;
+        }
+        if (from == null || from.length != to.length) {
+            return new Rectangle(0, 0, WIDTH, HEIGHT);
+        }
+        int unitBytes = unitBytes(to);
+        int unitPixels = unitPixels(to);
+        int rowBytes = WIDTH * unitBytes / unitPixels;
+        int top = -1, bottom = -1, left = rowBytes, right = 0;
+        for (int y = 0, o = 0; y < HEIGHT; y++, o += rowBytes) {
+            int l = 0, r = rowBytes;
+            while (l < r && from[o + l] == to[o + l]) l++;
+            if (l == r) {
+                continue; // row unchanged
+            }
+            while (from[o + r - 1] == to[o + r - 1]) r--;
+            if (top < 0) top = y;
+            bottom = y;
+            left = Math.min(left, l);
+            right = Math.max(right, r);
+        }
+        if (top < 0) {
+            return null;
+        }
+        int x0 = left / unitBytes * unitPixels;
+        int x1 = (right + unitBytes - 1) / unitBytes * unitPixels;
+        return new Rectangle(x0, top, x1 - x0, bottom - top + 1);
+    }
+
+    /**
+     * Copies the pixels of a rectangle from one full frame into the same place in another.
+     */
+    public static void copyRegion(byte[] frame, Rectangle region, byte[] into) {
+        assert frame.length == into.length;
+        int rowBytes = rowBytes(frame);
+        int regionRowBytes = regionBytes(frame, region) / region.height;
+        int from = offsetOf(frame, region.x, region.y);
+        for (int y = 0; y < region.height; y++, from += rowBytes) {
+            System.arraycopy(frame, from, into, from, regionRowBytes);
+        }
+    }
+
+    public static int rowBytes(byte[] frame) {
+        return WIDTH * unitBytes(frame) / unitPixels(frame);
+    }
+
+    /**
+     * @return The index of the first byte of the pixel, x must be aligned to whole bytes.
+     */
+    public static int offsetOf(byte[] frame, int x, int y) {
+        assert x % unitPixels(frame) == 0;
+        return y * rowBytes(frame) + x * unitBytes(frame) / unitPixels(frame);
+    }
+
+    public static int regionBytes(byte[] frame, Rectangle region) {
+        return region.width * region.height * unitBytes(frame) / unitPixels(frame);
+    }
+
+    /**
+     * @return The region widened as needed to start and end on whole bytes of the frame's packed format.
+     */
+    public static Rectangle align(byte[] frame, Rectangle region) {
+        int unitPixels = unitPixels(frame);
+        int x0 = region.x / unitPixels * unitPixels;
+        int x1 = (region.x + region.width + unitPixels - 1) / unitPixels * unitPixels;
+        return new Rectangle(x0, region.y, x1 - x0, region.height);
+    }
+
+    public static boolean isFullFrame(Rectangle region) {
+        return region.x == 0 && region.y == 0 && region.width == WIDTH && region.height == HEIGHT;
+    }
+
+    private static int unitBytes(byte[] frame) {
+        return frame.length == WIDTH * HEIGHT * 3 / 2 ? 3 : frame.length / (WIDTH * HEIGHT);
+    }
+
+    private static int unitPixels(byte[] frame) {
+        return frame.length == WIDTH * HEIGHT * 3 / 2 ? 2 : 1; // 12-bit pixels are packed in pairs
+    }
+}
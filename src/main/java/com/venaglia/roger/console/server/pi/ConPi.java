@@ -39,13 +39,11 @@ import com.pi4j.wiringpi.Gpio;
 import com.pi4j.wiringpi.Spi;
 import com.venaglia.roger.console.server.ConServer;
 import com.venaglia.roger.console.server.Con;
+import com.venaglia.roger.console.server.impl.FrameHistory;
 import com.venaglia.roger.console.server.impl.TestImage;
 
+import java.awt.Rectangle;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.function.Consumer;
 
 /**
  * Created by ed on 1/4/17.
@@ -70,6 +68,8 @@ public class ConPi extends ConServer {
     private final GpioPinDigitalInput rowPins[];
     private final SpiDevice displaySelector;
     private final SpiDevice displayBus;
+    private final SpiWriter spiWriter = new SpiWriter(this::writeFrame);
+    private final SpiTransfer spiTransfer = new SpiTransfer(ConPi::transfer, SpiTransfer.getConfiguredChunkSize());
 
     public ConPi() throws IOException {
         super();
@@ -112,22 +112,6 @@ public class ConPi extends ConServer {
     protected Con getCon() {
         return new Con() {
 
-            private final CommandStream commandStream = new CommandStream();
-            private final Map<Integer,byte[]> buffers = new HashMap<Integer,byte[]>() {
-                @Override
-                public byte[] get(Object key) {
-                    byte[] value = super.get(key);
-                    if (value == null && key instanceof Integer) {
-                        int length = (Integer)key;
-                        if (length >= 0 && length <= 2048) {
-                            value = new byte[length];
-                            super.put((Integer)key, value);
-                        } else throw new ArrayIndexOutOfBoundsException(length);
-                    }
-                    return value;
-                }
-            };
-
             @Override
             public void brightness(int value) {
                 brightness.setPwm(value);
@@ -138,8 +122,10 @@ public class ConPi extends ConServer {
                 if (selectorByte == 0) {
                     return; // no-op
                 }
-                sendCommandAndData(selectorByte, WAKE_COMMAND);
-                sleepUntil(currentTimeMillis() + 500L);
+                spiWriter.submit(selectorByte, () -> {
+                    sendCommandAndData(selectorByte, WAKE_COMMAND);
+                    sleepUntil(currentTimeMillis() + 500L);
+                });
             }
 
             @Override
@@ -147,30 +133,27 @@ public class ConPi extends ConServer {
                 if (selectorByte == 0) {
                     return; // no-op
                 }
-                sendCommandAndData(selectorByte, SLEEP_COMMAND);
-                sleepUntil(currentTimeMillis() + 500L);
+                spiWriter.submit(selectorByte, () -> {
+                    sendCommandAndData(selectorByte, SLEEP_COMMAND);
+                    sleepUntil(currentTimeMillis() + 500L);
+                });
             }
 
-            public void initializeConLcd(byte selectorByte) throws IOException {
+            @Override
+            public void softReset(byte selectorByte) throws IOException {
                 if (selectorByte == 0) {
                     return; // no-op
                 }
-                executeCommandSequence(selectorByte, INIT_SEQ);
-                sendCommandAndData(selectorByte, SET_COLUMN_0_COMMAND, SET_COLUMN_0_DATA);
-                sendCommandAndData(selectorByte, SET_ROW_0_COMMAND, SET_ROW_0_DATA);
-                sendCommandAndData(selectorByte, SET_DISPLAY_CLEAR_COMMAND, SET_DISPLAY_CLEAR_DATA);
-            }
-
-            @Override
-            public void softReset(byte selectorByte) throws IOException {
-                initializeConLcd(selectorByte);
+                spiWriter.submit(selectorByte, () -> initializeConLcd(selectorByte));
             }
 
             @Override
             public void hardReset() throws IOException {
-                reset.pulse(300, PinState.LOW, true);
-                sleepUntil(currentTimeMillis() + 200L);
-                initializeConLcd((byte)0xFF);
+                spiWriter.submit((byte)0xFF, () -> {
+                    reset.pulse(300, PinState.LOW, true);
+                    sleepUntil(currentTimeMillis() + 200L);
+                    initializeConLcd((byte)0xFF);
+                });
             }
 
             @Override
@@ -178,78 +161,98 @@ public class ConPi extends ConServer {
                 if (selectorByte == 0) {
                     return; // no-op
                 }
-                sendCommandAndData(selectorByte, SET_COLUMN_0_COMMAND, SET_COLUMN_0_DATA);
-                sendCommandAndData(selectorByte, SET_ROW_0_COMMAND, SET_ROW_0_DATA);
-                sendCommandAndData(selectorByte, MEMORY_WRITE_COMMAND, data);
+                spiWriter.submitFrame(selectorByte, data, null);
             }
 
             @Override
-            public void readButtons(Consumer<Boolean> buttonStateConsumer) {
-                columnPins[1].setMode(DIGITAL_INPUT);
-                columnPins[2].setMode(DIGITAL_INPUT);
-                columnPins[0].setMode(DIGITAL_OUTPUT);
-                columnPins[0].setState(PinState.LOW);
-                buttonStateConsumer.accept(rowPins[0].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[1].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[2].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[3].getState() == PinState.LOW);
-                columnPins[0].setMode(DIGITAL_INPUT);
-                columnPins[1].setMode(DIGITAL_OUTPUT);
-                columnPins[1].setState(PinState.LOW);
-                buttonStateConsumer.accept(rowPins[0].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[1].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[2].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[3].getState() == PinState.LOW);
-                columnPins[1].setMode(DIGITAL_INPUT);
-                columnPins[2].setMode(DIGITAL_OUTPUT);
-                columnPins[2].setState(PinState.LOW);
-                buttonStateConsumer.accept(rowPins[0].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[1].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[2].getState() == PinState.LOW);
-                buttonStateConsumer.accept(rowPins[3].getState() == PinState.LOW);
-                columnPins[2].setMode(DIGITAL_INPUT);
+            public void updateImage(byte selectorByte, byte[] data, Rectangle region) throws IOException {
+                if (selectorByte == 0) {
+                    return; // no-op
+                }
+                spiWriter.submitFrame(selectorByte, data, region);
             }
 
             @Override
-            public void sendRaw(byte selectorByte, byte command, byte... data) throws IOException {
-                sendCommandAndData(selectorByte, command, data);
-            }
-
-            private void executeCommandSequence(byte to, int... seq) throws IOException {
-                int i = 1;
-                for (int c = 0; c < seq[0]; c++) {
-                    byte command = (byte)seq[i++];
-                    boolean delay = (seq[i] & DELAY) != 0;
-                    int dataBytes = seq[i++] & 0xFFFF;
-                    byte[] data = new byte[dataBytes];
-                    for (int j = 0; j < dataBytes; j++) {
-                        data[j] = (byte)seq[i++];
-                    }
-                    sendCommandAndData(to, command, data);
-                    if (delay) {
-                        sleepUntil(currentTimeMillis() + seq[i++]);
+            public int readButtons() {
+                int down = 0;
+                for (int c = 0, bit = 1; c < columnPins.length; c++) {
+                    columnPins[c].setMode(DIGITAL_OUTPUT);
+                    columnPins[c].setState(PinState.LOW);
+                    for (GpioPinDigitalInput rowPin : rowPins) {
+                        if (rowPin.getState() == PinState.LOW) {
+                            down |= bit;
+                        }
+                        bit <<= 1;
                     }
+                    columnPins[c].setMode(DIGITAL_INPUT);
                 }
+                return down;
             }
 
-            private void sendCommandAndData(byte to, int command, byte... data) throws IOException {
-                commandStream.load((byte)(~to & 0xFF), buffers.get(0));
-                txd(SpiChannel.CS0, commandStream);
-                commandStream.load((byte)command, data);
-                txd(SpiChannel.CS1, commandStream);
-                commandStream.unload();
+            @Override
+            public void sendRaw(byte selectorByte, byte command, byte... data) throws IOException {
+                spiWriter.submit(selectorByte, () -> sendCommandAndData(selectorByte, command, data));
             }
+        };
+    }
 
-            private void txd(SpiChannel channel, InputStream data) throws IOException {
-                for (int a = data.available(); a > 0; a = data.available()) {
-                    int b = Math.min(a, 2000);
-                    byte[] buffer = buffers.get(b);
-                    int read = data.read(buffer, 0, b);
-                    assert read == b;
-                    Spi.wiringPiSPIDataRW(channel.getChannel(), buffer);
-                }
+    // SPI access, only from the SPI writer thread
+
+    private void initializeConLcd(byte selectorByte) throws IOException {
+        executeCommandSequence(selectorByte, INIT_SEQ);
+        sendCommandAndData(selectorByte, SET_COLUMN_0_COMMAND, SET_COLUMN_0_DATA);
+        sendCommandAndData(selectorByte, SET_ROW_0_COMMAND, SET_ROW_0_DATA);
+        sendCommandAndData(selectorByte, SET_DISPLAY_CLEAR_COMMAND, SET_DISPLAY_CLEAR_DATA);
+    }
+
+    private void writeFrame(byte selectorByte, byte[] data, Rectangle region) throws IOException {
+        if (region == null) {
+            sendCommandAndData(selectorByte, SET_COLUMN_0_COMMAND, SET_COLUMN_0_DATA);
+            sendCommandAndData(selectorByte, SET_ROW_0_COMMAND, SET_ROW_0_DATA);
+            sendCommandAndData(selectorByte, MEMORY_WRITE_COMMAND, data);
+        } else {
+            int x1 = region.x + region.width - 1;
+            int y1 = region.y + region.height - 1;
+            sendCommandAndData(selectorByte, ST7735_CASET, (byte)0, (byte)region.x, (byte)0, (byte)x1);
+            sendCommandAndData(selectorByte, ST7735_RASET, (byte)0, (byte)region.y, (byte)0, (byte)y1);
+            int rowBytes = FrameHistory.rowBytes(data);
+            int regionRowBytes = FrameHistory.regionBytes(data, region) / region.height;
+            int offset = FrameHistory.offsetOf(data, region.x, region.y);
+            selectDisplays(selectorByte);
+            spiTransfer.send(SpiChannel.CS1.getChannel(), (byte)ST7735_RAMWR, data, offset, regionRowBytes, rowBytes, region.height);
+        }
+    }
+
+    private void executeCommandSequence(byte to, int... seq) throws IOException {
+        int i = 1;
+        for (int c = 0; c < seq[0]; c++) {
+            byte command = (byte)seq[i++];
+            boolean delay = (seq[i] & DELAY) != 0;
+            int dataBytes = seq[i++] & 0xFFFF;
+            byte[] data = new byte[dataBytes];
+            for (int j = 0; j < dataBytes; j++) {
+                data[j] = (byte)seq[i++];
             }
-        };
+            sendCommandAndData(to, command, data);
+            if (delay) {
+                sleepUntil(currentTimeMillis() + seq[i++]);
+            }
+        }
+    }
+
+    private void sendCommandAndData(byte to, int command, byte... data) throws IOException {
+        selectDisplays(to);
+        spiTransfer.send(SpiChannel.CS1.getChannel(), (byte)command, data);
+    }
+
+    private void selectDisplays(byte to) throws IOException {
+        spiTransfer.send(SpiChannel.CS0.getChannel(), (byte)(~to & 0xFF));
+    }
+
+    private static void transfer(int channel, byte[] buffer, int length) throws IOException {
+        if (Spi.wiringPiSPIDataRW(channel, buffer, length) < 0) {
+            throw new IOException("SPI transfer failed on channel " + channel);
+        }
     }
 
     // Static methods
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.console.server.pi;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Sends a command byte and its data to an SPI channel in chunks, through one reusable buffer. SPI transfers are full
+ * duplex and the received bytes overwrite the buffer, so the data is copied into it one chunk at a time rather than
+ * handed over directly; nothing is allocated per transfer.
+ */
+class SpiTransfer {
+
+    private static final Path SPIDEV_BUFSIZ = Paths.get("/sys/module/spidev/parameters/bufsiz");
+
+    interface Sink {
+        /**
+         * Transfers the first {@code length} bytes of the buffer, replacing them with the bytes received.
+         */
+        void transfer(int channel, byte[] buffer, int length) throws IOException;
+    }
+
+    private final Sink sink;
+    private final byte[] chunk;
+
+    SpiTransfer(Sink sink, int chunkSize) {
+        assert sink != null;
+        assert chunkSize > 1;
+        this.sink = sink;
+        this.chunk = new byte[chunkSize];
+    }
+
+    int getChunkSize() {
+        return chunk.length;
+    }
+
+    void send(int channel, byte value) throws IOException {
+        chunk[0] = value;
+        sink.transfer(channel, chunk, 1);
+    }
+
+    void send(int channel, byte command, byte[] data) throws IOException {
+        send(channel, command, data, 0, data.length, data.length, 1);
+    }
+
+    /**
+     * Sends the command followed by {@code rows} runs of {@code rowLength} bytes, the first starting at
+     * {@code offset} and each following one {@code stride} bytes after the one before it.
+     */
+    void send(int channel, byte command, byte[] data, int offset, int rowLength, int stride, int rows) throws IOException {
+        byte[] chunk = this.chunk;
+        chunk[0] = command;
+        int used = 1;
+        for (int r = 0; r < rows; r++, offset += stride) {
+            for (int i = 0; i < rowLength; ) {
+                int n = Math.min(rowLength - i, chunk.length - used);
+                System.arraycopy(data, offset + i, chunk, used, n);
+                used += n;
+                i += n;
+                if (used == chunk.length) {
+                    sink.transfer(channel, chunk, used);
+                    used = 0;
+                }
+            }
+        }
+        if (used > 0) {
+            sink.transfer(channel, chunk, used);
+        }
+    }
+
+    /**
+     * @return The chunk size requested by the {@code con.spi.chunk} property, limited to the spidev driver's buffer
+     *         size when it can be read.
+     */
+    static int getConfiguredChunkSize() {
+        int chunkSize = Integer.getInteger("con.spi.chunk", 4096);
+        try {
+            int bufsiz = Integer.parseInt(new String(Files.readAllBytes(SPIDEV_BUFSIZ), StandardCharsets.US_ASCII).trim());
+            chunkSize = Math.min(chunkSize, bufsiz);
+        } catch (IOException | NumberFormatException e) {
+            // don't care, not running on a Pi or an older kernel
+        }
+        return Math.max(2, chunkSize);
+    }
+}
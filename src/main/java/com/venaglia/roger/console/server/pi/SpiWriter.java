@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.console.server.pi;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Performs all writes to the displays on one background thread, so callers return as soon as their work is queued.
+ * Work runs in the order it was submitted, except that a frame still waiting to be written is replaced by a newer
+ * frame for the same display; only the latest frame for each display is ever sent.
+ */
+class SpiWriter implements Runnable {
+
+    private static final int MAX_QUEUED = 64;
+
+    interface Task {
+        void run() throws IOException;
+    }
+
+    interface FrameWriter {
+        /**
+         * @param region The part of the frame to write, null to write all of it.
+         */
+        void write(byte selectorByte, byte[] data, Rectangle region) throws IOException;
+    }
+
+    private final FrameWriter frameWriter;
+    private final Deque<Op> queue = new ArrayDeque<>();
+    private final FrameOp[] waiting = new FrameOp[8]; // the queued frame for each display, if it can be replaced
+
+    SpiWriter(FrameWriter frameWriter) {
+        this.frameWriter = frameWriter;
+        Thread thread = new Thread(this, "SPI Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    synchronized void submitFrame(byte selectorByte, byte[] data, Rectangle region) {
+        FrameOp op = new FrameOp(selectorByte, data, region);
+        for (int i = 0, m = 1; i < 8; i++, m <<= 1) {
+            FrameOp stale = waiting[i];
+            if ((selectorByte & m) != 0 && stale != null) {
+                // this display never showed the stale frame, so the new one must also cover what that one changed
+                stale.selectorByte &= ~m;
+                op.include(stale.region);
+            }
+        }
+        enqueue(selectorByte, op);
+    }
+
+    synchronized void submit(byte selectorByte, Task task) {
+        enqueue(selectorByte, new Op(selectorByte) {
+            @Override
+            void run() throws IOException {
+                task.run();
+            }
+        });
+    }
+
+    private void enqueue(byte selectorByte, Op op) {
+        while (queue.size() >= MAX_QUEUED) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // don't care
+            }
+        }
+        queue.add(op);
+        for (int i = 0, m = 1; i < 8; i++, m <<= 1) {
+            if ((selectorByte & m) != 0) {
+                // frames queued after a task may not replace frames queued before it
+                waiting[i] = op instanceof FrameOp ? (FrameOp)op : null;
+            }
+        }
+        notifyAll();
+    }
+
+    private synchronized Op take() {
+        while (queue.isEmpty()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // don't care
+            }
+        }
+        Op op = queue.poll();
+        for (int i = 0; i < 8; i++) {
+            if (waiting[i] == op) {
+                waiting[i] = null; // about to be written, too late to replace it
+            }
+        }
+        notifyAll();
+        return op;
+    }
+
+    @SuppressWarnings("InfiniteLoopStatement")
+    @Override
+    public void run() {
+        while (true) {
+            Op op = take();
+            try {
+                if (op.selectorByte != 0) {
+                    op.run();
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private abstract static class Op {
+
+        byte selectorByte;
+
+        Op(byte selectorByte) {
+            this.selectorByte = selectorByte;
+        }
+
+        abstract void run() throws IOException;
+    }
+
+    private class FrameOp extends Op {
+
+        private final byte[] data;
+        private Rectangle region;
+
+        FrameOp(byte selectorByte, byte[] data, Rectangle region) {
+            super(selectorByte);
+            this.data = data;
+            this.region = region;
+        }
+
+        void include(Rectangle other) {
+            region = region == null || other == null ? null : region.union(other);
+        }
+
+        @Override
+        void run() throws IOException {
+            frameWriter.write(selectorByte, data, region);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import static java.lang.System.currentTimeMillis;
 
 import com.venaglia.roger.console.server.ConServer;
 import com.venaglia.roger.console.server.Con;
+import com.venaglia.roger.console.server.impl.FrameHistory;
 
 import javax.swing.*;
 import java.awt.*;
@@ -30,7 +31,6 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 /**
  * Created by ed on 8/28/16.
@@ -185,6 +185,27 @@ public class ConSim extends ConServer {
                 sleepUntil(until);
             }
 
+            @Override
+            public void updateImage(byte selectorByte, byte[] data, Rectangle region) throws IOException {
+                if (selectorByte == 0) {
+                    return; // no-op
+                }
+                long until = currentTimeMillis() + 250L;
+                byte[] d = data.clone();
+                executor.execute(() -> {
+                    float scale = this.brightnessScale;
+                    float base = this.brightnessBase;
+                    for (int i = 0, m = 1; i < 8; i++, m <<= 1) {
+                        if ((selectorByte & m) != 0 && !sleeping[i]) {
+                            FrameHistory.copyRegion(d, region, last[i].select(d.length));
+                            simulatedButtons.setImageBytesRgb((byte)m, last[i].scale(scale, base, buffer));
+                        }
+                    }
+                });
+                until += timeFor(4, 4, FrameHistory.regionBytes(data, region)); // rol/col select + region data
+                sleepUntil(until);
+            }
+
             private long timeFor(int... bytes) {
                 double seconds = 0;
                 for (int c : bytes) {
@@ -195,10 +216,8 @@ public class ConSim extends ConServer {
             }
 
             @Override
-            public void readButtons(Consumer<Boolean> resultBuilder) {
-                for (Boolean state : simulatedButtons.getButtonStates()) {
-                    resultBuilder.accept(state);
-                }
+            public int readButtons() {
+                return simulatedButtons.getButtonMask();
             }
 
             @Override
@@ -102,6 +102,19 @@ public class SimulatedButtons extends JComponent {
         return buttonStateIterator;
     }
 
+    /**
+     * @return A bit for each button, bit n is set when button n is down.
+     */
+    public int getButtonMask() {
+        int down = 0;
+        for (int i = 0, l = buttonStateSuppliers.size(); i < l; i++) {
+            if (buttonStateSuppliers.get(i).get()) {
+                down |= 1 << i;
+            }
+        }
+        return down;
+    }
+
     public void setImageBytesRgb(byte selectorByte, byte[] imageDateRgb) {
         for (int i = 0, m = 1; i < buttons.length; i++, m <<= 1) {
             if ((selectorByte & m) != 0) {
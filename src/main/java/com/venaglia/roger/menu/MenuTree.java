@@ -31,6 +31,11 @@ public interface MenuTree {
 
     List<Button> getCurrentButtons();
 
+    /**
+     * @return The buttons that navigating to one of the current buttons would show, or null if it isn't a menu.
+     */
+    List<Button> getChildButtons(String buttonId);
+
     boolean canNavigateUp();
 
     boolean navigate(String toButtonId);
@@ -62,6 +62,17 @@ public class MenuTreeLoader extends AbstractLoader<MenuTree> {
                 return current.getButtons(buttonSet.get());
             }
 
+            @Override
+            public List<Button> getChildButtons(String buttonId) {
+                assert buttonId != null;
+                for (MenuItem menuItem : current.getChildren()) {
+                    if (buttonId.equals(menuItem.getButtonId()) && menuItem.getChildren() != null) {
+                        return menuItem.getButtons(buttonSet.get());
+                    }
+                }
+                return null;
+            }
+
             @Override
             public boolean canNavigateUp() {
                 return current != top;
@@ -20,79 +20,60 @@ package com.venaglia.roger.output.impl;
 import com.venaglia.roger.output.ActiveMessageListener;
 import com.venaglia.roger.output.ArchivedMessage;
 import com.venaglia.roger.output.OutputElement;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.venaglia.roger.ui.ListenerRegistry;
 
 /**
  * Created by ed on 10/6/16.
  */
 public class ActiveMessageDelegate implements ActiveMessageListener {
 
-    private List<ActiveMessageListener> listeners = new ArrayList<>(4);
+    private static final int ASYNC_BACKLOG = 64;
 
+    private final ListenerRegistry<ActiveMessageListener> listeners = new ListenerRegistry<>("Active Message");
 
     @Override
     public void beforeAppend(OutputElement<?> element) {
-        for (ActiveMessageListener listener : listeners) {
-            listener.beforeAppend(element);
-        }
+        listeners.fire(l -> l.beforeAppend(element));
     }
 
     @Override
     public void afterAppend(OutputElement<?> element) {
-        for (ActiveMessageListener listener : listeners) {
-            listener.afterAppend(element);
-        }
+        listeners.fire(l -> l.afterAppend(element));
     }
 
     @Override
     public void beforeUndo() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.beforeUndo();
-        }
+        listeners.fire(ActiveMessageListener::beforeUndo);
     }
 
     @Override
     public void afterUndo() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.afterUndo();
-        }
+        listeners.fire(ActiveMessageListener::afterUndo);
     }
 
     @Override
     public void beforeRedo() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.beforeRedo();
-        }
+        listeners.fire(ActiveMessageListener::beforeRedo);
     }
 
     @Override
     public void afterRedo() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.afterRedo();
-        }
+        listeners.fire(ActiveMessageListener::afterRedo);
     }
 
     @Override
     public void beforeArchive() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.beforeArchive();
-        }
+        listeners.fire(ActiveMessageListener::beforeArchive);
     }
 
     @Override
     public void afterArchive(ArchivedMessage message) {
-        for (ActiveMessageListener listener : listeners) {
-            listener.afterArchive(message);
-        }
+        listeners.fire(l -> l.afterArchive(message));
     }
 
     @Override
     public void changed() {
-        for (ActiveMessageListener listener : listeners) {
-            listener.changed();
-        }
+        listeners.fire(ActiveMessageListener::changed);
     }
 
     public void add(ActiveMessageListener listener) {
@@ -100,6 +81,14 @@ public class ActiveMessageDelegate implements ActiveMessageListener {
         listeners.add(listener);
     }
 
+    /**
+     * Adds a listener that gets its events on its own thread, after the change has been made.
+     */
+    public void addAsync(ActiveMessageListener listener) {
+        assert listener != null;
+        listeners.addAsync(listener, ASYNC_BACKLOG);
+    }
+
     public void remove(ActiveMessageListener listener) {
         assert listener != null;
         listeners.remove(listener);
@@ -17,79 +17,113 @@
 
 package com.venaglia.roger.ui;
 
+import com.google.common.base.Ticker;
 import com.google.inject.Singleton;
 import com.venaglia.roger.buttons.Button;
 import com.venaglia.roger.buttons.SimpleButtonListener;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
- * Created by ed on 10/11/16.
+ * Turns button ups and downs into clicks, long presses and noise. Timed work is handed to one thread through a lock
+ * free queue; that thread alone orders it by its deadline on the {@link Intervals#ticker()}, and parks until the
+ * earliest one. Aborting scheduled work only marks it, the thread drops it when it comes up.
  */
 @Singleton
 public class ButtonProcessor implements SimpleButtonListener {
 
-    private final List<ButtonListener> buttonListeners = new ArrayList<>(4);
-    private final List<ButtonNoiseListener> buttonNoiseListeners = new ArrayList<>(4);
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int ABORTED = 2;
+    private static final Comparator<Wrapper> BY_DEADLINE = (a, b) -> {
+        long d = a.deadline - b.deadline; // ticks may wrap, only differences are meaningful
+        return d != 0 ? Long.signum(d) : Long.compare(a.seq, b.seq);
+    };
+
+    private static final int ASYNC_BACKLOG = 64;
+
+    private final ListenerRegistry<ButtonListener> buttonListeners = new ListenerRegistry<>("Button");
+    private final ListenerRegistry<ButtonNoiseListener> buttonNoiseListeners = new ListenerRegistry<>("Button Noise");
     private final Map<Button,Trigger> buttonsDown = new HashMap<>();
     private final Lock handleLock = new ReentrantLock(true);
-    private final Lock upNextLock = new ReentrantLock(true);
-    private final TreeMap<Long,Wrapper> upNext;
+    private final Queue<Wrapper> incoming = new ConcurrentLinkedQueue<>(); // scheduled, not yet seen by the thread
+    private final PriorityQueue<Wrapper> upNext = new PriorityQueue<>(16, BY_DEADLINE); // thread's own
+    private final Set<Wrapper> scheduled = ConcurrentHashMap.newKeySet(); // everything still to run
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicBoolean started = new AtomicBoolean();
     private final Thread buttonProcessorThread;
     private final ThreadLocal<Wrapper> activeWrapper = new ThreadLocal<>();
     private final Intervals intervals;
+    private final Ticker ticker;
     private final Trigger nullTrigger = new Trigger(0L, Button.NIL, null);
 
     private Trigger lastButtonUpTrigger = nullTrigger;
-    private boolean alive = true;
+    private volatile boolean alive = true;
     private Thread.UncaughtExceptionHandler uncaughtExceptionHandler;
 
     public ButtonProcessor() {
-        this(new Intervals(), null, null, null);
+        this(new Intervals(), null, null, null, null);
     }
 
+    /**
+     * @param runDueWork When not null, receives a runnable that runs whatever is due on the calling thread, instead of
+     *                   on the processor's own thread. Together with a virtual ticker tests needn't sleep.
+     */
     ButtonProcessor(Intervals intervals,
                     Consumer<Supplier<Set<Button>>> getButtonsDown,
                     Consumer<Supplier<Integer>> getQueueSize,
-                    Consumer<Runnable> runAtEndOfTest) {
+                    Consumer<Runnable> runAtEndOfTest,
+                    Consumer<Runnable> runDueWork) {
         assert intervals != null;
         this.intervals = intervals;
+        this.ticker = intervals.ticker();
         buttonProcessorThread = new Thread(this::mainLoop, "Button Processor");
         uncaughtExceptionHandler = Thread.getDefaultUncaughtExceptionHandler();
         if (uncaughtExceptionHandler == null) {
             uncaughtExceptionHandler = (t, e) -> e.printStackTrace();
         }
         buttonProcessorThread.setDaemon(true);
-        upNext = new TreeMap<>();
         if (getButtonsDown != null) {
             getButtonsDown.accept(this::buttonsDown);
         }
         if (getQueueSize != null) {
-            getQueueSize.accept(upNext::size);
+            getQueueSize.accept(scheduled::size);
         }
         if (runAtEndOfTest != null) {
             runAtEndOfTest.accept(this::die);
         }
+        if (runDueWork != null) {
+            started.set(true); // never started
+            runDueWork.accept(this::runDue);
+        }
     }
 
     @Override
     public void handleButtonDown(Button button) {
-        long now = System.currentTimeMillis();
+        long now = ticker.read();
         handleLock.lock();
         try {
-            long age = now - lastButtonUpTrigger.eventTime;
+            long age = TimeUnit.NANOSECONDS.toMillis(now - lastButtonUpTrigger.eventTime);
             if (age <= intervals.eventDelay() && lastButtonUpTrigger.button.equals(button) && lastButtonUpTrigger.abort != null) {
                 // A high-level event was scheduled, but the button was pressed
                 // shortly after it was released, so no high-level event will
@@ -115,7 +149,7 @@ public class ButtonProcessor implements SimpleButtonListener {
 
     @Override
     public void handleButtonUp(Button button) {
-        long now = System.currentTimeMillis();
+        long now = ticker.read();
         handleLock.lock();
         try {
             fire(l -> l.handleButtonUp(button));
@@ -129,7 +163,7 @@ public class ButtonProcessor implements SimpleButtonListener {
             lastButtonUpTrigger = new Trigger(now, button, null);
             if (trigger != null) {
                 buttonsDown.remove(button);
-                long age = now - trigger.eventTime;
+                long age = TimeUnit.NANOSECONDS.toMillis(now - trigger.eventTime);
                 if (age < intervals.click_a()) {
                     // too short, no high-level event will be fired
                     fireNoise(l -> l.handleTooShort(button));
@@ -160,7 +194,7 @@ public class ButtonProcessor implements SimpleButtonListener {
     }
 
     private Consumer<ButtonListener> getContinuedLongPressConsumer(Button button, long now, int count) {
-        return l -> l.handleContinuedLongPress(button, System.currentTimeMillis() - now, count);
+        return l -> l.handleContinuedLongPress(button, TimeUnit.NANOSECONDS.toMillis(ticker.read() - now), count);
     }
 
     private Runnable getClickDispatcher(Button button) {
@@ -178,36 +212,57 @@ public class ButtonProcessor implements SimpleButtonListener {
     }
 
     private void fire(Consumer<? super ButtonListener> relay) {
-        buttonListeners.forEach(relay);
+        buttonListeners.fire(relay);
     }
 
     private void fireNoise(Consumer<? super ButtonNoiseListener> relay) {
-        buttonNoiseListeners.forEach(relay);
+        buttonNoiseListeners.fire(relay);
     }
 
-    @SuppressWarnings("InfiniteLoopStatement")
-    private synchronized void mainLoop() {
+    private void mainLoop() {
         if (Thread.currentThread() != buttonProcessorThread) {
             throw new IllegalStateException("mainLoop() cannot be run from any thread other than " + buttonProcessorThread);
         }
         while (alive) {
-            long now = System.currentTimeMillis();
-            Map.Entry<Long,Wrapper> next = getNext();
-            if (next != null && now >= next.getKey()) {
-                safeRun(next, next.getValue());
+            long wait = runDue();
+            if (wait < 0) {
+                LockSupport.park(this);
             } else {
-                long wait = (next != null ? next.getKey() : Long.MAX_VALUE) - now;
-                try {
-                    wait(wait);
-                } catch (InterruptedException e) {
-                    // time to wake up
-                }
+                LockSupport.parkNanos(this, wait);
             }
         }
     }
 
-    private void safeRun(Map.Entry<Long,Wrapper> next, Wrapper wrapper) {
-        unschedule(next.getKey(), wrapper);
+    /**
+     * @return The nanoseconds until more work is due, or -1 if there is none.
+     */
+    private long runDue() {
+        while (true) {
+            for (Wrapper w = incoming.poll(); w != null; w = incoming.poll()) {
+                upNext.add(w);
+            }
+            Wrapper next = upNext.peek();
+            if (next == null) {
+                return -1;
+            }
+            if (next.isAborted()) {
+                upNext.poll(); // aborted while it waited
+                continue;
+            }
+            long wait = next.deadline - ticker.read();
+            if (wait > 0) {
+                return wait;
+            }
+            upNext.poll();
+            safeRun(next);
+        }
+    }
+
+    private void safeRun(Wrapper wrapper) {
+        if (!wrapper.start()) {
+            return;
+        }
+        scheduled.remove(wrapper);
         Wrapper save = activeWrapper.get();
         activeWrapper.set(wrapper);
         try {
@@ -223,6 +278,7 @@ public class ButtonProcessor implements SimpleButtonListener {
 
     private void die() {
         alive = false;
+        LockSupport.unpark(buttonProcessorThread);
     }
 
     private Set<Button> buttonsDown() {
@@ -234,97 +290,41 @@ public class ButtonProcessor implements SimpleButtonListener {
         }
     }
 
-    private boolean unschedule(Long key, Wrapper expecting) {
-        upNextLock.lock();
-        try {
-            if (upNext.get(key) == expecting) {
-                upNext.remove(key);
-                return true;
-            }
-            return false;
-        } finally {
-            upNextLock.unlock();
-        }
-    }
-
     private void reschedule(long after, TimeUnit afterUnit) {
         Wrapper wrapper = activeWrapper.get();
         if (wrapper == null) {
             throw new IllegalStateException("reschedule() can only be called inside the run() method when it executes on schedule");
         }
         assert after > 0 : "Wait period must be a positive value to indicate execution in the future: " + after + " " + afterUnit;
-        long when = System.currentTimeMillis() + afterUnit.toMillis(after);
-        assert when >= 10 : "Wait period must be at least 10ms in the future: " + when + "ms";
-        boolean interrupt;
-        upNextLock.lock();
-        try {
-            while (upNext.containsKey(when)) when++;
-            Long key = when;
-            upNext.put(key, wrapper);
-            wrapper.reschedule(key);
-            interrupt = upNext.firstKey() == when;
-        } finally {
-            upNextLock.unlock();
-        }
-        if (buttonProcessorThread.getState() == Thread.State.NEW) {
-            buttonProcessorThread.start();
-        } else if (interrupt) {
-            buttonProcessorThread.interrupt();
+        if (wrapper.reschedule(ticker.read() + afterUnit.toNanos(after), sequence.incrementAndGet())) {
+            enqueue(wrapper);
         }
     }
 
     private Abort schedule(String name, Button button, final Runnable runThis, long after, TimeUnit afterUnit) {
         assert runThis != null;
         assert after > 0 : "Wait period must be a positive value to indicate execution in the future: " + after + " " + afterUnit;
-        Wrapper wrapper;
-        long when = System.currentTimeMillis() + afterUnit.toMillis(after);
-        assert when >= 10 : "Wait period must be at least 10ms in the future: " + when + "ms";
-        boolean interrupt;
-        upNextLock.lock();
-        try {
-            while (upNext.containsKey(when)) when++;
-            Long key = when;
-            wrapper = new Wrapper(name, runThis, button, key, true);
-            upNext.put(key, wrapper);
-            interrupt = upNext.firstKey() == when;
-        } finally {
-            upNextLock.unlock();
-        }
-        if (buttonProcessorThread.getState() == Thread.State.NEW) {
-            buttonProcessorThread.start();
-        } else if (interrupt) {
-            buttonProcessorThread.interrupt();
-        }
+        long deadline = ticker.read() + afterUnit.toNanos(after);
+        Wrapper wrapper = new Wrapper(name, runThis, button, deadline, sequence.incrementAndGet(), true);
+        enqueue(wrapper);
         return wrapper.abort;
     }
 
     private void runASAP(String name, Button button, Runnable... runThese) {
-        int l = runThese.length;
-        upNextLock.lock();
-        try {
-            long before = (upNext.isEmpty() ? System.currentTimeMillis() : upNext.firstKey()) - l;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0; i < l; i++) {
-                Long key = before++;
-                Wrapper wrapper = new Wrapper(String.format("%s[%d]", name, i), runThese[i], button, key, false);
-                upNext.put(key, wrapper);
-            }
-        } finally {
-            upNextLock.unlock();
-        }
-        if (buttonProcessorThread.getState() == Thread.State.NEW) {
-            buttonProcessorThread.start();
-        } else {
-            buttonProcessorThread.interrupt();
+        long now = ticker.read();
+        for (int i = 0, l = runThese.length; i < l; i++) {
+            String wrapperName = String.format("%s[%d]", name, i);
+            enqueue(new Wrapper(wrapperName, runThese[i], button, now, sequence.incrementAndGet(), false));
         }
     }
 
-    private Map.Entry<Long,Wrapper> getNext() {
-        upNextLock.lock();
-        try {
-            return upNext.isEmpty() ? null : upNext.firstEntry();
-        } finally {
-            upNextLock.unlock();
+    private void enqueue(Wrapper wrapper) {
+        scheduled.add(wrapper);
+        incoming.add(wrapper);
+        if (started.compareAndSet(false, true)) {
+            buttonProcessorThread.start();
+        } else if (Thread.currentThread() != buttonProcessorThread) {
+            LockSupport.unpark(buttonProcessorThread); // it may be parked until something later
         }
     }
 
@@ -333,6 +333,15 @@ public class ButtonProcessor implements SimpleButtonListener {
         buttonListeners.add(buttonListener);
     }
 
+    /**
+     * Adds a listener that gets its events on its own thread, so that it can take its time without holding up button
+     * processing or the other listeners.
+     */
+    public void addAsyncButtonListener(ButtonListener buttonListener) {
+        assert buttonListener != null;
+        buttonListeners.addAsync(buttonListener, ASYNC_BACKLOG);
+    }
+
     public void removeButtonListener(ButtonListener buttonListener) {
         assert buttonListener != null;
         buttonListeners.remove(buttonListener);
@@ -349,72 +358,90 @@ public class ButtonProcessor implements SimpleButtonListener {
     }
 
     String dumpQueue() {
-        long now = System.currentTimeMillis();
-        upNextLock.lock();
-        try {
-            StringBuilder buffer = new StringBuilder();
-            buffer.append("Button Processor Queue:");
-            if (!upNext.isEmpty()) {
-                for (Map.Entry<Long,Wrapper> entry : upNext.entrySet()) {
-                    double delay = entry.getKey() - now;
-                    String unit = "ms";
-                    String format = "%5.f";
-                    if (delay <= 0) {
-                        delay = 0;
-                    } else if (delay < 400) {
-                        unit = "s";
-                        format = "%5.2f";
-                        delay /= 1000;
-                    } else if (delay < 900) {
-                        unit = "s";
-                        format = "%5.1f";
-                        delay /= 1000;
-                    } else {
-                        unit = "s";
-                        format = "%5f";
-                        delay = Math.round(delay / 1000.0);
-                    }
-                    buffer.append("\n\t");
-                    buffer.append(String.format(format, delay)).append(unit);
-                    buffer.append(" -> ").append(entry.getValue());
+        long now = ticker.read();
+        List<Wrapper> queue = new ArrayList<>(scheduled);
+        queue.sort(BY_DEADLINE);
+        StringBuilder buffer = new StringBuilder();
+        buffer.append("Button Processor Queue:");
+        if (!queue.isEmpty()) {
+            for (Wrapper wrapper : queue) {
+                double delay = (wrapper.deadline - now) / 1000000.0;
+                String unit = "ms";
+                String format = "%5.f";
+                if (delay <= 0) {
+                    delay = 0;
+                } else if (delay < 400) {
+                    unit = "s";
+                    format = "%5.2f";
+                    delay /= 1000;
+                } else if (delay < 900) {
+                    unit = "s";
+                    format = "%5.1f";
+                    delay /= 1000;
+                } else {
+                    unit = "s";
+                    format = "%5f";
+                    delay = Math.round(delay / 1000.0);
                 }
-            } else {
-                buffer.append("\n\t(empty)");
+                buffer.append("\n\t");
+                buffer.append(String.format(format, delay)).append(unit);
+                buffer.append(" -> ").append(wrapper);
             }
-            return buffer.toString();
-        } finally {
-            upNextLock.unlock();
+        } else {
+            buffer.append("\n\t(empty)");
         }
+        return buffer.toString();
     }
 
     private class Wrapper {
         final String name;
         final Runnable runnable;
         final Button button;
-        Abort abort;
-        Long key;
+        final Abort abort;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        long deadline; // ticker nanoseconds
+        long seq; // keeps work due at the same time in the order it was scheduled
         boolean canReschedule = false;
 
-        public Wrapper(String name, Runnable runnable, Button button, Long key, boolean canAbort) {
+        public Wrapper(String name, Runnable runnable, Button button, long deadline, long seq, boolean canAbort) {
             assert name != null;
             assert runnable != null;
             assert button != null;
-            assert key != null;
             this.name = name;
             this.runnable = runnable;
             this.button = button;
-            this.abort = canAbort ? new Abort(this, button, key) : null;
-            this.key = key;
+            this.abort = canAbort ? new Abort(this, button, deadline) : null;
+            this.deadline = deadline;
+            this.seq = seq;
         }
 
-        void reschedule(Long key) {
+        /**
+         * @return true if this should run now, false if it was aborted.
+         */
+        boolean start() {
+            return state.compareAndSet(WAITING, RUNNING);
+        }
+
+        boolean isAborted() {
+            return state.get() == ABORTED;
+        }
+
+        /**
+         * @return false if this was aborted while it ran, and should not run again.
+         */
+        boolean reschedule(long deadline, long seq) {
             if (!canReschedule) {
                 throw new IllegalStateException("The current task cannot be rescheduled more than once");
             }
             canReschedule = false;
-            this.key = key;
-            if (this.abort != null) {
-                this.abort = new Abort(this, button, key);
+            this.deadline = deadline;
+            this.seq = seq;
+            return state.compareAndSet(RUNNING, WAITING);
+        }
+
+        void abort() {
+            if (state.getAndSet(ABORTED) == WAITING) {
+                scheduled.remove(this); // stays in the thread's queue until it comes up
             }
         }
 
@@ -439,7 +466,7 @@ public class ButtonProcessor implements SimpleButtonListener {
         }
 
         void abort() {
-            unschedule(wrapper.key, wrapper);
+            wrapper.abort();
         }
 
         Button getButton() {
@@ -452,7 +479,7 @@ public class ButtonProcessor implements SimpleButtonListener {
     }
 
     private static class Trigger {
-        final long eventTime;
+        final long eventTime; // ticker nanoseconds
         final Button button;
 
         Abort abort;
@@ -465,7 +492,7 @@ public class ButtonProcessor implements SimpleButtonListener {
 
         @Override
         public String toString() {
-            return String.format("Button[%1$s].trigger@%2$tl:%2$tM:%2$tS.%2$tL", button, eventTime);
+            return String.format("Button[%s].trigger@%dms", button, TimeUnit.NANOSECONDS.toMillis(eventTime));
         }
     }
 
@@ -17,6 +17,8 @@
 
 package com.venaglia.roger.ui;
 
+import com.venaglia.roger.ui.impl.Frame;
+
 import java.io.IOException;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
@@ -34,4 +36,6 @@ public interface Command {
     default Pattern expectedResponsePattern() { return MATCH_OK_RESPONSE; }
     default void handleResponse(Matcher matcher, Consumer<Command> queue) {}
     default void handleError(IOException ioe, Consumer<Command> queue) throws IOException { throw ioe; }
+    default Frame getFrame() { return null; } // null will send this command as a text frame in binary mode
+    default Frame getCompressedFrame() { return null; } // used instead of getFrame() after "codec lz", if not null
 }
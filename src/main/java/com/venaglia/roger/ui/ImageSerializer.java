@@ -18,15 +18,22 @@
 package com.venaglia.roger.ui;
 
 import com.google.inject.ImplementedBy;
-import com.venaglia.roger.ui.impl.ImageSerializer444;
+import com.venaglia.roger.ui.impl.RasterImageSerializer;
 
 import java.awt.image.BufferedImage;
 
 /**
  * Created by ed on 1/26/17.
  */
-@ImplementedBy(ImageSerializer444.class)
+@ImplementedBy(RasterImageSerializer.class)
 public interface ImageSerializer {
 
     byte[] serialize(BufferedImage bufferedImage);
+
+    /**
+     * @return A name that differs between serializers producing different bytes for the same image.
+     */
+    default String getFormatName() {
+        return getClass().getSimpleName();
+    }
 }
@@ -17,11 +17,23 @@
 
 package com.venaglia.roger.ui;
 
+import com.google.common.base.Ticker;
+
 /**
  * Created by ed on 10/25/16.
+ *
+ * <p>The timings used to tell apart clicks, long presses and noise, in milliseconds. They are measured with
+ * {@link #ticker()}, never with the wall clock, so setting the clock can't turn a click into a long press.
  */
 public class Intervals {
 
+    /**
+     * @return The monotonic clock, in nanoseconds, that input is timed with.
+     */
+    public Ticker ticker() {
+        return Ticker.systemTicker();
+    }
+
     public long eventDelay() {
         return 200L;
     }
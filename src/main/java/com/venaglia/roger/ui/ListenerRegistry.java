@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.ui;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A thread safe list of listeners that events are fired at. Listeners can be added and removed from any thread, even
+ * while an event is being fired; each event goes to the listeners registered when it was fired.
+ *
+ * <p>A listener added with {@link #addAsync(Object, int)} gets its events on its own thread, through a bounded queue,
+ * so a slow listener doesn't hold up the thread firing events or the other listeners. When its queue is full further
+ * events are dropped for that listener only.
+ */
+public class ListenerRegistry<L> {
+
+    private final String name;
+    private final CopyOnWriteArrayList<Registration<L>> registrations = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param name Used to name the threads of asynchronous listeners.
+     */
+    public ListenerRegistry(String name) {
+        assert name != null;
+        this.name = name;
+    }
+
+    public void add(L listener) {
+        assert listener != null;
+        registrations.add(new Registration<>(listener, null));
+    }
+
+    /**
+     * @param capacity The number of events that may wait for this listener.
+     */
+    public void addAsync(L listener, int capacity) {
+        assert listener != null;
+        assert capacity > 0;
+        Dispatcher<L> dispatcher = new Dispatcher<>(listener, capacity);
+        Thread thread = new Thread(dispatcher, name + " Listener " + listener.getClass().getSimpleName());
+        thread.setDaemon(true);
+        thread.start();
+        registrations.add(new Registration<>(listener, dispatcher));
+    }
+
+    public void remove(L listener) {
+        assert listener != null;
+        for (Registration<L> registration : registrations) {
+            if (registration.listener == listener && registrations.remove(registration)) {
+                if (registration.dispatcher != null) {
+                    registration.dispatcher.stop();
+                }
+                return;
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    public void fire(Consumer<? super L> event) {
+        for (Registration<L> registration : registrations) {
+            if (registration.dispatcher == null) {
+                event.accept(registration.listener);
+            } else {
+                registration.dispatcher.offer(event);
+            }
+        }
+    }
+
+    private static class Registration<L> {
+
+        private final L listener;
+        private final Dispatcher<L> dispatcher;
+
+        private Registration(L listener, Dispatcher<L> dispatcher) {
+            this.listener = listener;
+            this.dispatcher = dispatcher;
+        }
+    }
+
+    private static class Dispatcher<L> implements Runnable {
+
+        private final L listener;
+        private final BlockingQueue<Consumer<? super L>> queue;
+
+        private volatile boolean stopped = false;
+        private boolean dropping = false;
+
+        private Dispatcher(L listener, int capacity) {
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void offer(Consumer<? super L> event) {
+            if (queue.offer(event)) {
+                dropping = false;
+            } else if (!dropping) {
+                dropping = true; // once per backlog is plenty
+                System.err.println("Listener is falling behind, dropping events: " + listener);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            queue.offer(l -> {}); // wakes the thread if it is waiting
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                Consumer<? super L> event;
+                try {
+                    event = queue.take();
+                } catch (InterruptedException e) {
+                    continue; // don't care
+                }
+                try {
+                    event.accept(listener);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -21,6 +21,8 @@ import com.venaglia.roger.buttons.Button;
 import com.venaglia.roger.buttons.SimpleButtonListener;
 import com.venaglia.roger.output.OutputWindow;
 
+import java.util.Collection;
+
 /**
  * Created by ed on 8/27/16.
  */
@@ -30,10 +32,21 @@ public interface UI {
 
     void setHardButtons(Button left, Button right, Button topLeft, Button topCenter, Button topRight);
 
+    /**
+     * Renders these buttons in the background, and uploads them to the console if it doesn't have them, so showing
+     * them later doesn't wait on either.
+     */
+    void prefetch(Collection<Button> buttons);
+
     void addListener(SimpleButtonListener listener);
 
     void addListener(ButtonListener listener);
 
+    /**
+     * Adds a listener that gets its events on its own thread, for listeners that may be slow to respond.
+     */
+    void addAsyncListener(ButtonListener listener);
+
     void removeListener(ButtonListener listener);
 
     OutputWindow getOutputWindow();
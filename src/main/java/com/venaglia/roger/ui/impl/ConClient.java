@@ -17,18 +17,19 @@
 
 package com.venaglia.roger.ui.impl;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import com.venaglia.roger.ui.Command;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,14 +41,23 @@ public class ConClient implements Runnable {
 
     private static Pattern MATCH_AUTH_CHALLENGE = Pattern.compile("auth-challenge ([0-9a-f]+)");
     private static Pattern MATCH_AUTH_RESPONSE = Pattern.compile("auth-success");
+    private static Pattern MATCH_BINARY_RESPONSE = Pattern.compile("ok binary");
+    private static Pattern MATCH_CODEC_RESPONSE = Pattern.compile("ok codec " + FrameCodec.NAME);
+    private static Pattern MATCH_SEQUENCED_RESPONSE = Pattern.compile("\\[(\\d+)\\] (.*)");
 
     private final SocketAddress addr;
     private final byte[] secret;
     private final BlockingQueue<Command> queue;
     private final Consumer<Command> queueIn;
+    private final boolean binary;
+    private final boolean compress;
+    private final int window;
 
-    private BufferedReader in;
-    private Writer out;
+    private Connection connection;
+    private boolean compressed;
+    private volatile Consumer<String> eventHandler;
+    private volatile Runnable disconnectHandler;
+    private volatile boolean subscribed;
 
     public ConClient(SocketAddress addr,
                      byte[] secret,
@@ -61,6 +71,9 @@ public class ConClient implements Runnable {
         this.secret = secret;
         this.queue = queue;
         this.queueIn = queueIn;
+        this.binary = Boolean.parseBoolean(System.getProperty("con.network.binary", "true"));
+        this.compress = Boolean.parseBoolean(System.getProperty("con.network.compress", "true"));
+        this.window = Math.max(1, Integer.getInteger("con.network.window", 4));
     }
 
     @SuppressWarnings("InfiniteLoopStatement")
@@ -68,25 +81,28 @@ public class ConClient implements Runnable {
         while (true) {
             try (Socket socket = connect()) {
                 socket.setTcpNoDelay(true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF_8));
-                out = new OutputStreamWriter(socket.getOutputStream(), UTF_8);
+                connection = new Connection(socket);
                 auth();
-                while (true) {
-                    Command command = null;
-                    try {
-                        command = queue.take();
-                    } catch (InterruptedException e) {
-                        // don't care
-                    }
-                    if (command != null) {
-                        try {
-                            command.handleResponse(deliver(command.expectedResponsePattern(),
-                                                           command.getCommand(),
-                                                           command.getArgs()),
-                                                   queueIn);
-                        } catch (IOException e) {
-                            command.handleError(e, queueIn);
-                        }
+                if (binary) {
+                    negotiateBinary();
+                }
+                compressed = compress && connection.isBinary() && negotiateCodec();
+                subscribed = eventHandler != null && negotiateEvents();
+                boolean sequenced = window > 1 && negotiateSequence(); // last, responses are numbered from here on
+                Pipeline pipeline = new Pipeline(socket, sequenced);
+                Thread reader = new Thread(pipeline, "Con Client Responses");
+                reader.setDaemon(true);
+                reader.start();
+                try {
+                    pipeline.writeCommands();
+                } finally {
+                    boolean wasSubscribed = subscribed;
+                    subscribed = false;
+                    pipeline.fail(new EOFException("console disconnected")); // closes the socket, ending the reader
+                    join(reader);
+                    Runnable handler = disconnectHandler;
+                    if (wasSubscribed && handler != null) {
+                        handler.run(); // no more events will come from this connection
                     }
                 }
             } catch (IOException e) {
@@ -100,10 +116,64 @@ public class ConClient implements Runnable {
         deliver(MATCH_AUTH_RESPONSE, "auth", Sha256.hmac(secret, challenge.group(1)));
     }
 
+    private void negotiateBinary() throws IOException {
+        try {
+            deliver(MATCH_BINARY_RESPONSE, "binary");
+            connection.setBinary(true);
+        } catch (IOException e) {
+            // older consoles only speak the text protocol
+            System.err.println("Binary mode unavailable, continuing in text mode: " + e.getMessage());
+        }
+    }
+
+    private boolean negotiateCodec() {
+        try {
+            deliver(MATCH_CODEC_RESPONSE, "codec", FrameCodec.NAME);
+            return true;
+        } catch (IOException e) {
+            // older consoles only take uncompressed image data
+            System.err.println("Compression unavailable, sending images uncompressed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean negotiateSequence() {
+        try {
+            deliver(Command.MATCH_OK_RESPONSE, "seq", "on");
+            return true;
+        } catch (IOException e) {
+            // older consoles don't number their responses, fall back to trusting the order
+            System.err.println("Sequence numbers unavailable, matching responses by order: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean negotiateEvents() {
+        try {
+            deliver(Command.MATCH_OK_RESPONSE, "events", "on");
+            return true;
+        } catch (IOException e) {
+            // older consoles can only be polled
+            System.err.println("Button events unavailable, polling instead: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void send(Command command) throws IOException {
+        Frame frame = compressed ? command.getCompressedFrame() : null;
+        if (frame == null && connection.isBinary()) {
+            frame = command.getFrame();
+        }
+        connection.send(frame != null ? frame : Frame.text(toLine(command.getCommand(), command.getArgs())));
+    }
+
     private Matcher deliver(Pattern responsePattern, String command, String... args) throws IOException {
-        String response = deliver(command, args);
-        if (response.startsWith("err ")) {
-            throw new IOException(response.substring(4));
+        return match(responsePattern, deliver(command, args));
+    }
+
+    private Matcher match(Pattern responsePattern, String response) throws IOException {
+        if (response.startsWith("err ") || response.equals("err")) {
+            throw new ErrorResponseException(response.length() > 4 ? response.substring(4) : response);
         }
         Matcher matcher = responsePattern.matcher(response);
         if (matcher.find() && matcher.start(0) == 0 && matcher.end(0) == response.length()) {
@@ -113,20 +183,54 @@ public class ConClient implements Runnable {
     }
 
     private String deliver(String command, String... args) throws IOException {
-        out.write(command);
+        connection.send(Frame.text(toLine(command, args)));
+        connection.flush();
+        return receiveResponse();
+    }
+
+    private String toLine(String command, String... args) {
+        StringBuilder buffer = new StringBuilder(command);
         for (String arg : args) {
-            out.write(' ');
-            out.write(arg);
+            buffer.append(' ').append(arg);
         }
-        out.write('\n');
-        out.flush();
-        String line = in.readLine();
-        while (line.length() > 0 && (line.charAt(0) == '\t' || line.charAt(0) == '#')) {
-            line = in.readLine();
+        return buffer.toString();
+    }
+
+    private String receiveResponse() throws IOException {
+        String line = receiveLine();
+        while (line.length() > 0 && (line.charAt(0) == '\t' || line.charAt(0) == '#' || line.startsWith("event "))) {
+            Consumer<String> eventHandler = this.eventHandler;
+            if (eventHandler != null && line.startsWith("event ")) {
+                eventHandler.accept(line.substring(6));
+            }
+            line = receiveLine();
         }
         return line;
     }
 
+    private String receiveLine() throws IOException {
+        Frame frame = connection.receive();
+        if (frame == null) {
+            throw new EOFException("console disconnected");
+        }
+        String text = frame.getText();
+        if (text == null) {
+            throw new IOException("Unexpected response frame, opcode " + frame.getOpcode());
+        }
+        // in binary mode a multi-line response arrives in one frame; the status is on the last line
+        return text.substring(text.lastIndexOf('\n') + 1);
+    }
+
+    private void join(Thread thread) {
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                // don't care
+            }
+        }
+    }
+
     private Socket connect() {
         Socket socket = new Socket();
         while (true) {
@@ -144,8 +248,182 @@ public class ConClient implements Runnable {
         }
     }
 
+    /**
+     * Tracks the commands sent on one connection that are still waiting for a response. The calling thread writes
+     * commands while up to {@code window} responses are outstanding, and the pipeline's own thread reads responses,
+     * completing commands in the order they were sent.
+     */
+    private class Pipeline implements Runnable {
+
+        private final Socket socket;
+        private final boolean sequenced;
+        private final Deque<InFlight> inFlight = new ArrayDeque<>(window);
+        private final Semaphore slots = new Semaphore(window);
+
+        private long sequence = 0;
+        private boolean closed = false;
+
+        private Pipeline(Socket socket, boolean sequenced) {
+            this.socket = socket;
+            this.sequenced = sequenced;
+        }
+
+        void writeCommands() throws IOException {
+            while (!isClosed()) {
+                Command command = null;
+                try {
+                    command = queue.poll(250, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // don't care
+                }
+                if (command == null) {
+                    continue;
+                }
+                slots.acquireUninterruptibly();
+                if (!add(new InFlight(command, command.expectedResponsePattern(), ++sequence))) {
+                    command.handleError(new EOFException("console disconnected"), queueIn);
+                    return;
+                }
+                try {
+                    send(command);
+                    if (queue.isEmpty() || slots.availablePermits() == 0) {
+                        connection.flush();
+                    }
+                } catch (IOException e) {
+                    fail(e); // includes the command just sent
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    String response = receiveResponse();
+                    InFlight next = poll();
+                    if (next == null) {
+                        throw new IOException("Unexpected response: " + response);
+                    }
+                    slots.release();
+                    if (sequenced) {
+                        response = checkSequence(next.sequence, response);
+                    }
+                    Matcher matcher;
+                    try {
+                        matcher = match(next.responsePattern, response);
+                    } catch (IOException e) {
+                        next.command.handleError(e, queueIn);
+                        continue;
+                    }
+                    next.command.handleResponse(matcher, queueIn);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!isClosed()) {
+                    e.printStackTrace();
+                }
+                fail(e instanceof IOException ? (IOException)e : new IOException(e));
+            }
+        }
+
+        private String checkSequence(long expected, String response) throws IOException {
+            Matcher matcher = MATCH_SEQUENCED_RESPONSE.matcher(response);
+            if (!matcher.matches()) {
+                throw new IOException("Missing sequence number, expected " + expected + ": " + response);
+            }
+            if (Long.parseLong(matcher.group(1)) != expected) {
+                throw new IOException("Response out of sequence, expected " + expected + ": " + response);
+            }
+            return matcher.group(2);
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private synchronized boolean add(InFlight command) {
+            if (closed) {
+                return false;
+            }
+            inFlight.add(command);
+            return true;
+        }
+
+        private synchronized InFlight poll() {
+            return inFlight.poll();
+        }
+
+        private void fail(IOException cause) {
+            List<InFlight> failed;
+            synchronized (this) {
+                closed = true;
+                failed = new ArrayList<>(inFlight);
+                inFlight.clear();
+            }
+            slots.release(window); // nobody waits on a dead connection
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // don't care
+            }
+            for (InFlight f : failed) {
+                try {
+                    f.command.handleError(cause, queueIn);
+                } catch (IOException e) {
+                    // already reconnecting
+                }
+            }
+        }
+    }
+
+    private static class InFlight {
+
+        private final Command command;
+        private final Pattern responsePattern;
+        private final long sequence;
+
+        private InFlight(Command command, Pattern responsePattern, long sequence) {
+            this.command = command;
+            this.responsePattern = responsePattern;
+            this.sequence = sequence;
+        }
+    }
+
     // public API
 
+    /**
+     * Subscribes to button events pushed by the console, such as "down 3" or "up 3". The subscription is made on
+     * the next connection. The console closes idle connections, so subscribers should keep sending commands now
+     * and then.
+     */
+    public void setEventHandler(Consumer<String> eventHandler) {
+        this.eventHandler = eventHandler;
+    }
+
+    /**
+     * Called when a connection that was pushing button events drops. The console can't push the ups for buttons
+     * that were down, so subscribers should let go of them.
+     */
+    public void setDisconnectHandler(Runnable disconnectHandler) {
+        this.disconnectHandler = disconnectHandler;
+    }
+
+    /**
+     * @return true while connected to a console that is pushing button events.
+     */
+    public boolean isSubscribed() {
+        return subscribed;
+    }
+
+    /**
+     * Sends a command that can be skipped, such as a prefetch.
+     *
+     * @return false if the queue is too full to take it.
+     */
+    public boolean offerCommand(Command command) {
+        return queue.remainingCapacity() > 1 && queue.offer(command); // leaves room for display updates
+    }
+
     public <C extends Command> C sendCommand(C command) {
         if (!queue.offer(command)) {
             throw new RuntimeException("Queue is full, unable to update the display");
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.ui.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Arrays;
+
+/**
+ * One end of a console connection. Both ends start out exchanging text
+ * lines, and switch to {@link Frame}s together once the "binary" command
+ * has been acknowledged. Lines are read from the same byte stream as
+ * frames, so nothing is lost to read-ahead when the mode changes.
+ */
+public class Connection {
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    private byte[] line = new byte[256];
+    private boolean binary = false;
+
+    public Connection(Socket socket) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 65536));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 65536));
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * @return The next frame; in text mode each line is returned as a text
+     *     frame. Returns null when the other end has disconnected.
+     */
+    public Frame receive() throws IOException {
+        if (binary) {
+            return Frame.read(in);
+        }
+        String line = readLine();
+        return line == null ? null : Frame.text(line);
+    }
+
+    public void send(Frame frame) throws IOException {
+        if (binary) {
+            frame.write(out);
+        } else {
+            out.write(frame.toText().getBytes(UTF_8));
+            out.write('\n');
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private String readLine() throws IOException {
+        int length = 0;
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                if (length == 0) {
+                    return null; // disconnected
+                }
+                break;
+            }
+            if (length == line.length) {
+                if (length >= Frame.MAX_FRAME_LENGTH * 2) {
+                    throw new IOException("line too long");
+                }
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte)b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--; // telnet
+        }
+        return new String(line, 0, length, UTF_8);
+    }
+}
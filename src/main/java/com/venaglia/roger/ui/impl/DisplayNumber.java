@@ -32,12 +32,18 @@ public enum DisplayNumber {
     ALL(0b11111111);
 
     private final String selector;
+    private final byte selectorByte;
 
     DisplayNumber(int selector) {
         this.selector = String.format("0x%02x", selector);
+        this.selectorByte = (byte)selector;
     }
 
     public String getSelector() {
         return selector;
     }
+
+    public byte getSelectorByte() {
+        return selectorByte;
+    }
 }
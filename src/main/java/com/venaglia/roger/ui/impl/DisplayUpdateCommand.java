@@ -19,7 +19,10 @@ package com.venaglia.roger.ui.impl;
 
 import com.venaglia.roger.ui.Command;
 
+import java.io.IOException;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -29,24 +32,107 @@ import java.util.regex.Pattern;
  */
 public class DisplayUpdateCommand implements Command {
 
-    private static final Pattern MATCH_SHOW_RESPONSE = Pattern.compile("ok|err name ([0-9a-f]+)");
+    private static final Pattern MATCH_SHOW_OR_NEED_RESPONSE = Pattern.compile("ok|need (\\w+)");
 
-    private boolean sendImageData;
-    private String imageData;
+    private enum Step { SHOW_OR_NEED, STORE, SHOW }
+
+    private final Set<String> storedHashes;
+
+    private Displays displays;
+    private long update;
+    private Step step;
+    private boolean resent;
+    private byte[] imageData;
+    private String imageDataBase64;
+    private Frame compressedStore;
     private String hash;
-    private DisplayNumber displayNumber;
+    private byte selectorByte;
 
     public DisplayUpdateCommand(byte[] imageDataRGB) {
+        this(imageDataRGB, new HashSet<>());
+    }
+
+    /**
+     * @param imageDataRGB The serialized image data.
+     * @param storedHashes Hashes of the images the console has acknowledged storing, shared between commands so
+     *                     that identical faces are only uploaded once.
+     */
+    public DisplayUpdateCommand(byte[] imageDataRGB, Set<String> storedHashes) {
+        this(imageDataRGB, Sha256.digest(imageDataRGB), storedHashes);
+    }
+
+    /**
+     * @param hash The hash of the image data, when it is already known.
+     */
+    public DisplayUpdateCommand(byte[] imageDataRGB, String hash, Set<String> storedHashes) {
         assert imageDataRGB.length == 128 * 160 * 3;
-        this.sendImageData = true;
-        this.imageData = Base64.getEncoder().encodeToString(imageDataRGB);
-        this.hash = Sha256.digest(imageDataRGB);
-        this.displayNumber = DisplayNumber.ALL;
+        assert hash != null;
+        assert storedHashes != null;
+        this.storedHashes = storedHashes;
+        this.imageData = imageDataRGB;
+        this.hash = hash;
+        this.step = storedHashes.contains(hash) ? Step.SHOW : Step.SHOW_OR_NEED;
+        this.selectorByte = DisplayNumber.ALL.getSelectorByte();
     }
 
-    public void setDisplayNumber(DisplayNumber displayNumber) {
+    /**
+     * @return A new command that shows this image on the display. It is the newest update for that display, and
+     *         won't be shown there if a newer one is sent before it gets through.
+     */
+    public DisplayUpdateCommand showOn(DisplayNumber displayNumber, Displays displays) {
         assert displayNumber != null;
-        this.displayNumber = displayNumber;
+        assert displays != null;
+        DisplayUpdateCommand show = new DisplayUpdateCommand(imageData, hash, storedHashes);
+        show.compressedStore = compressedStore;
+        show.imageDataBase64 = imageDataBase64;
+        show.displays = displays;
+        show.update = displays.next();
+        show.selectorByte = 0;
+        show.addDisplayNumber(displayNumber);
+        return show;
+    }
+
+    /**
+     * Shows the image on another display as well, so displays sharing an image are written in one transfer.
+     */
+    public void addDisplayNumber(DisplayNumber displayNumber) {
+        assert displayNumber != null;
+        this.selectorByte |= displayNumber.getSelectorByte();
+        if (displays != null) {
+            displays.claim(update, displayNumber.getSelectorByte());
+        }
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return A new command that uploads this image to the console without showing it.
+     */
+    public DisplayUpdateCommand upload() {
+        DisplayUpdateCommand upload = new DisplayUpdateCommand(imageData, hash, storedHashes);
+        upload.step = Step.STORE;
+        upload.selectorByte = 0; // nothing to show once it's stored
+        return upload;
+    }
+
+    /**
+     * Records that the console already has this image, so showing it won't ask.
+     */
+    void markStored() {
+        storedHashes.add(hash);
+    }
+
+    /**
+     * @return The displays to show the image on, less those that have been given a newer update since.
+     */
+    private byte getSelectorByte() {
+        return displays == null ? selectorByte : displays.current(update, selectorByte);
+    }
+
+    private String getSelector() {
+        return String.format("0x%02x", getSelectorByte() & 0xFF);
     }
 
     @Override
@@ -56,22 +142,134 @@ public class DisplayUpdateCommand implements Command {
 
     @Override
     public String[] getArgs() {
-        return sendImageData ? new String[]{ "store", hash, imageData } : new String[]{ "show", hash, displayNumber.getSelector() };
+        switch (step) {
+            case STORE:
+                return new String[]{ "store", hash, getImageDataBase64() };
+            case SHOW:
+                return new String[]{ "show", hash, getSelector() };
+            default:
+                return new String[]{ "show-or-need", hash, getSelector() };
+        }
+    }
+
+    @Override
+    public Frame getFrame() {
+        switch (step) {
+            case STORE:
+                return Frame.imageStore(hash, imageData);
+            case SHOW:
+                return Frame.imageShow(hash, getSelectorByte());
+            default:
+                return null; // small enough to go as text
+        }
+    }
+
+    @Override
+    public Frame getCompressedFrame() {
+        if (step != Step.STORE) {
+            return null;
+        }
+        if (compressedStore == null) {
+            byte[] packed = FrameCodec.compress(imageData);
+            // a face that doesn't shrink is sent as is
+            compressedStore = packed.length < imageData.length ? Frame.imageStoreCompressed(hash, packed) : Frame.imageStore(hash, imageData);
+        }
+        return compressedStore;
+    }
+
+    private String getImageDataBase64() {
+        if (imageDataBase64 == null) {
+            // only needed when the connection is in text mode
+            imageDataBase64 = Base64.getEncoder().encodeToString(imageData);
+        }
+        return imageDataBase64;
     }
 
     @Override
     public Pattern expectedResponsePattern() {
-        return sendImageData ? MATCH_OK_RESPONSE : MATCH_SHOW_RESPONSE;
+        return step == Step.SHOW_OR_NEED ? MATCH_SHOW_OR_NEED_RESPONSE : MATCH_OK_RESPONSE;
     }
 
     @Override
     public void handleResponse(Matcher matcher, Consumer<Command> queue) {
-        if (sendImageData) {
-            sendImageData = false;
-            queue.accept(this); // now show that image
-        } else if (matcher.group().startsWith("err ")) {
-            sendImageData = true;
-            queue.accept(this); // cache has expired, resend the image data
+        switch (step) {
+            case SHOW_OR_NEED:
+                if (matcher.group().startsWith("need ")) {
+                    step = Step.STORE;
+                    queue.accept(this); // the console doesn't have it, upload the image data
+                    break;
+                }
+                storedHashes.add(hash);
+                step = Step.SHOW;
+                break;
+            case STORE:
+                storedHashes.add(hash);
+                step = Step.SHOW;
+                if (getSelectorByte() != 0) {
+                    queue.accept(this); // now show that image, unless every display has moved on
+                }
+                break;
+            case SHOW:
+                resent = false;
+                break;
+        }
+    }
+
+    @Override
+    public void handleError(IOException ioe, Consumer<Command> queue) throws IOException {
+        switch (step) {
+            case SHOW_OR_NEED:
+                // older consoles don't know "show-or-need", upload the image data the old way
+                step = Step.STORE;
+                queue.accept(this);
+                break;
+            case SHOW:
+                storedHashes.remove(hash);
+                if (resent) {
+                    throw ioe;
+                }
+                resent = true;
+                step = Step.STORE;
+                queue.accept(this); // cache has expired, resend the image data
+                break;
+            default:
+                throw ioe;
+        }
+    }
+
+    /**
+     * Keeps track of the newest update for each display, shared by the commands sent to one console. A command that
+     * has to upload its image first goes to the back of the queue, so it can get through after a newer update for
+     * the same display. It then leaves that display alone, rather than bringing back the old face.
+     */
+    public static class Displays {
+
+        private final long[] latest = new long[8]; // the newest update for each selector bit
+        private long sequence = 0;
+
+        synchronized long next() {
+            return ++sequence;
+        }
+
+        synchronized void claim(long update, byte selector) {
+            for (int i = 0; i < 8; i++) {
+                if ((selector & 1 << i) != 0) {
+                    latest[i] = Math.max(latest[i], update);
+                }
+            }
+        }
+
+        /**
+         * @return The displays in the selector whose newest update is this one.
+         */
+        synchronized byte current(long update, byte selector) {
+            int current = 0;
+            for (int i = 0; i < 8; i++) {
+                if ((selector & 1 << i) != 0 && latest[i] == update) {
+                    current |= 1 << i;
+                }
+            }
+            return (byte)current;
         }
     }
 }
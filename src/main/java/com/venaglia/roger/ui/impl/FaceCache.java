@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.ui.impl;
+
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.venaglia.roger.bundle.Bundle;
+import com.venaglia.roger.buttons.Button;
+import com.venaglia.roger.buttons.ButtonFace;
+import com.venaglia.roger.buttons.ButtonSet;
+import com.venaglia.roger.ui.ImageSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Keeps the serialized image data of every button face, with its hash, in a memory mapped file next to the bundle.
+ * Showing a face for the first time is then a read from that file, instead of decoding a PNG, drawing the label and
+ * serializing the result. The file belongs to one bundle and one serializer format, and is built in the background at
+ * startup when there isn't one yet. Faces are rendered as before until it is ready, or when the file can't be used.
+ *
+ * <p>The file holds a header, an index of key, hash and length for each face, then the image data of each face in
+ * index order. Setting con.image.face.cache to false turns it off, con.image.face.dir picks another directory.
+ */
+@Singleton
+public class FaceCache {
+
+    private static final int MAGIC = 0x52464331; // "RFC1"
+    private static final String PLACEHOLDER_HASH = Sha256.digest(new byte[0]); // hashes are all the same length
+
+    private final ImageSerializer imageSerializer;
+
+    private volatile Map<String,Slot> index = Collections.emptyMap();
+    private volatile ByteBuffer mapped;
+
+    @Inject
+    public FaceCache(Bundle bundle,
+                     ImageSerializer imageSerializer,
+                     Provider<ButtonSet> buttonSet,
+                     ScheduledExecutorService executor) {
+        this(imageSerializer);
+        if (Boolean.parseBoolean(System.getProperty("con.image.face.cache", "true"))) {
+            executor.execute(() -> {
+                File dir = new File(System.getProperty("con.image.face.dir", System.getProperty("bundle.dir", ".")));
+                String name = String.format("faces-%s-%s.cache", bundle.getId(), imageSerializer.getFormatName());
+                Collection<Button> buttons = buttonSet.get().getAll();
+                Map<String,ButtonFace> faces = new LinkedHashMap<>(buttons.size() * 2);
+                for (Button button : buttons) {
+                    faces.putIfAbsent(button.getButtonFace().getCacheKey(), button.getButtonFace());
+                }
+                load(new File(dir, name), faces.values());
+            });
+        }
+    }
+
+    FaceCache(ImageSerializer imageSerializer) {
+        assert imageSerializer != null;
+        this.imageSerializer = imageSerializer;
+    }
+
+    /**
+     * Maps the cache file, first writing it from the passed faces if it is missing or unreadable.
+     */
+    void load(File file, Collection<ButtonFace> faces) {
+        try {
+            if (!file.exists() || !open(file)) {
+                write(file, faces);
+                if (!open(file)) {
+                    throw new IOException("Unable to read back " + file);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace(); // faces are rendered when they are shown instead
+        }
+    }
+
+    /**
+     * @return The serialized image data and hash of the face, read from the cache file if it has the face.
+     */
+    public Entry get(ButtonFace face) {
+        Slot slot = index.get(face.getCacheKey());
+        if (slot != null) {
+            byte[] data = new byte[slot.length];
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position(slot.offset);
+            buffer.get(data);
+            return new Entry(data, slot.hash);
+        }
+        byte[] data = face.serialize(imageSerializer); // callers keep what they need, the face doesn't
+        return new Entry(data, Sha256.digest(data));
+    }
+
+    private boolean open(File file) throws IOException {
+        ByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after closing
+        }
+        try {
+            if (buffer.getInt() != MAGIC || !imageSerializer.getFormatName().equals(readString(buffer))) {
+                return false;
+            }
+            int count = buffer.getInt();
+            Map<String,Slot> index = new HashMap<>(count * 2);
+            int offset = 0;
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                String hash = readString(buffer);
+                int length = buffer.getInt();
+                if (length < 0 || length > Frame.MAX_FRAME_LENGTH) {
+                    return false;
+                }
+                index.put(key, new Slot(offset, length, hash));
+                offset += length;
+            }
+            int start = buffer.position();
+            if (start + (long)offset != buffer.limit()) {
+                return false; // truncated, or written by something else
+            }
+            for (Slot slot : index.values()) {
+                slot.offset += start;
+            }
+            this.mapped = buffer;
+            this.index = index;
+            return true;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes each face's image data as soon as it is serialized, then goes back to fill in the index, so only one
+     * face is held in memory at a time.
+     */
+    private void write(File file, Collection<ButtonFace> faces) throws IOException {
+        File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(tmpFile, "rw")) {
+            out.setLength(0);
+            String[] keys = new String[faces.size()];
+            String[] hashes = new String[keys.length];
+            int[] lengths = new int[keys.length];
+            int i = 0;
+            for (ButtonFace face : faces) {
+                keys[i] = face.getCacheKey();
+                hashes[i++] = PLACEHOLDER_HASH;
+            }
+            out.seek(header(keys, hashes, lengths).length);
+            i = 0;
+            for (ButtonFace face : faces) {
+                byte[] data = face.serialize(imageSerializer);
+                hashes[i] = Sha256.digest(data);
+                lengths[i++] = data.length;
+                out.write(data);
+            }
+            byte[] header = header(keys, hashes, lengths);
+            assert header.length == out.getFilePointer() - sum(lengths);
+            out.seek(0);
+            out.write(header);
+        } catch (IOException e) {
+            if (!tmpFile.delete()) {
+                tmpFile.deleteOnExit();
+            }
+            throw e;
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Failed to rename temp file to final filename: " + tmpFile + " -> " + file);
+        }
+        // caches for earlier bundles in the same format won't be used again
+        String suffix = "-" + imageSerializer.getFormatName() + ".cache";
+        File[] stale = file.getParentFile().listFiles((dir, name) -> {
+            return name.startsWith("faces-") && name.endsWith(suffix) && !name.equals(file.getName());
+        });
+        for (File f : stale == null ? new File[0] : stale) {
+            if (!f.delete()) {
+                System.err.println("Unable to delete stale face cache: " + f);
+            }
+        }
+    }
+
+    private byte[] header(String[] keys, String[] hashes, int[] lengths) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + keys.length * 96);
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(MAGIC);
+        writeString(out, imageSerializer.getFormatName());
+        out.writeInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            writeString(out, keys[i]);
+            writeString(out, hashes[i]);
+            out.writeInt(lengths[i]);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static long sum(int[] lengths) {
+        long sum = 0;
+        for (int length : lengths) {
+            sum += length;
+        }
+        return sum;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Slot {
+
+        private final int length;
+        private final String hash;
+
+        private int offset;
+
+        private Slot(int offset, int length, String hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    public static final class Entry {
+
+        private final byte[] imageData;
+        private final String hash;
+
+        private Entry(byte[] imageData, String hash) {
+            this.imageData = imageData;
+            this.hash = hash;
+        }
+
+        public byte[] getImageData() {
+            return imageData;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+}
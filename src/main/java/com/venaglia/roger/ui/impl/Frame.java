@@ -0,0 +1,158 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.ui.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * A single length-prefixed message on a connection that has been switched
+ * to binary mode with the "binary" command. All values are big-endian:
+ *
+ * <pre>
+ *     int32      length of the remainder of the frame
+ *     byte       opcode
+ *     byte       display selector
+ *     byte       name length, n
+ *     byte[n]    name, UTF-8
+ *     byte[...]  payload, everything up to the end of the frame
+ * </pre>
+ *
+ * Text frames carry an ordinary command or response line as their payload,
+ * so every text command remains available in binary mode.
+ */
+public class Frame {
+
+    public static final byte OP_TEXT = 0x01;
+    public static final byte OP_IMAGE_STORE = 0x02;
+    public static final byte OP_IMAGE_SHOW = 0x03;
+    public static final byte OP_IMAGE_STORE_LZ = 0x04; // see FrameCodec, only after "codec lz"
+
+    public static final int MAX_FRAME_LENGTH = 1 << 20;
+
+    private static final byte[] NO_BYTES = {};
+
+    private final byte opcode;
+    private final byte selector;
+    private final String name;
+    private final byte[] payload;
+
+    private Frame(byte opcode, byte selector, String name, byte[] payload) {
+        assert name != null;
+        assert payload != null;
+        this.opcode = opcode;
+        this.selector = selector;
+        this.name = name;
+        this.payload = payload;
+    }
+
+    public static Frame text(String text) {
+        return new Frame(OP_TEXT, (byte)0, "", text.getBytes(UTF_8));
+    }
+
+    public static Frame imageStore(String name, byte[] data) {
+        return new Frame(OP_IMAGE_STORE, (byte)0, name, data);
+    }
+
+    public static Frame imageStoreCompressed(String name, byte[] packed) {
+        return new Frame(OP_IMAGE_STORE_LZ, (byte)0, name, packed);
+    }
+
+    public static Frame imageShow(String name, byte selector) {
+        return new Frame(OP_IMAGE_SHOW, selector, name, NO_BYTES);
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public byte getSelector() {
+        return selector;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public String getText() {
+        return opcode == OP_TEXT ? new String(payload, UTF_8) : null;
+    }
+
+    /**
+     * @return The equivalent line for a connection in text mode.
+     */
+    public String toText() {
+        switch (opcode) {
+            case OP_TEXT:
+                return getText();
+            case OP_IMAGE_STORE:
+                return "image store " + name + " " + Base64.getEncoder().encodeToString(payload);
+            case OP_IMAGE_STORE_LZ:
+                return "image store-lz " + name + " " + Base64.getEncoder().encodeToString(payload);
+            case OP_IMAGE_SHOW:
+                return String.format("image show %s 0x%02x", name, selector & 0xFF);
+        }
+        throw new IllegalStateException("No text equivalent for opcode " + opcode);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+        byte[] nameBytes = name.isEmpty() ? NO_BYTES : name.getBytes(UTF_8);
+        assert nameBytes.length <= 0xFF;
+        out.writeInt(3 + nameBytes.length + payload.length);
+        out.writeByte(opcode);
+        out.writeByte(selector);
+        out.writeByte(nameBytes.length);
+        out.write(nameBytes);
+        out.write(payload);
+    }
+
+    /**
+     * @return The next frame, or null if the stream ended cleanly between frames.
+     */
+    public static Frame read(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null; // disconnected
+        }
+        if (length < 3 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("bad frame length: " + length);
+        }
+        byte opcode = in.readByte();
+        byte selector = in.readByte();
+        int nameLength = in.readUnsignedByte();
+        if (nameLength > length - 3) {
+            throw new IOException("bad frame name length: " + nameLength);
+        }
+        byte[] name = new byte[nameLength];
+        in.readFully(name);
+        byte[] payload = new byte[length - 3 - nameLength];
+        in.readFully(payload);
+        return new Frame(opcode, selector, new String(name, UTF_8), payload);
+    }
+}
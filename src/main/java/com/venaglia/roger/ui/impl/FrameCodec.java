@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.ui.impl;
+
+import java.util.Arrays;
+
+/**
+ * A small lossless codec for image data, negotiated with the "codec lz" command. Button faces are mostly flat colour
+ * with a label, so long repeats of a 1 to 6 byte pattern and rows repeated from above make up most of a frame. The
+ * encoded form is:
+ *
+ * <pre>
+ *     int32      decoded length, big-endian
+ *     0nnnnnnn   n + 1 literal bytes follow
+ *     1nnnnnnn   int16 distance, copy n + 4 bytes starting that far back, the copy may overlap itself
+ * </pre>
+ */
+public final class FrameCodec {
+
+    public static final String NAME = "lz";
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_MATCH = MIN_MATCH + 0x7F;
+    private static final int MAX_LITERALS = 0x80;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    private static final int[] PERIODS = { 1, 2, 3, 6 }; // flat 888, 565 and 444 colour, and two 444 pixels
+
+    private FrameCodec() {
+        // static methods only
+    }
+
+    public static byte[] compress(byte[] data) {
+        int n = data.length;
+        byte[] out = new byte[4 + n + n / MAX_LITERALS + 1];
+        out[0] = (byte)(n >> 24);
+        out[1] = (byte)(n >> 16);
+        out[2] = (byte)(n >> 8);
+        out[3] = (byte)n;
+        int o = 4;
+        int[] recent = new int[1 << HASH_BITS];
+        Arrays.fill(recent, -1);
+        int literals = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= n) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            for (int period : PERIODS) {
+                if (period <= i) {
+                    int length = matchLength(data, i - period, i);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = period;
+                    }
+                }
+            }
+            int hash = hash(data, i);
+            int candidate = recent[hash];
+            recent[hash] = i;
+            if (candidate >= 0 && i - candidate <= MAX_DISTANCE) {
+                int length = matchLength(data, candidate, i);
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestDistance = i - candidate;
+                }
+            }
+            if (bestLength >= MIN_MATCH) {
+                o = literals(data, literals, i, out, o);
+                out[o++] = (byte)(0x80 | bestLength - MIN_MATCH);
+                out[o++] = (byte)(bestDistance >> 8);
+                out[o++] = (byte)bestDistance;
+                i += bestLength;
+                literals = i;
+            } else {
+                i++;
+            }
+        }
+        o = literals(data, literals, n, out, o);
+        return Arrays.copyOf(out, o);
+    }
+
+    /**
+     * @return The decoded data, in a new array of exactly the decoded length.
+     */
+    public static byte[] decompress(byte[] packed) {
+        byte[] data = new byte[decodedLength(packed)];
+        decompress(packed, data, 0);
+        return data;
+    }
+
+    /**
+     * Decodes into the given buffer, so the data can land where it will be used without another copy.
+     *
+     * @return The number of bytes decoded.
+     */
+    public static int decompress(byte[] packed, byte[] into, int offset) {
+        int length = decodedLength(packed);
+        if (into.length - offset < length) {
+            throw new IllegalArgumentException("buffer too small for " + length + " decoded bytes");
+        }
+        int end = offset + length;
+        int o = offset;
+        int i = 4;
+        try {
+            while (o < end) {
+                int token = packed[i++] & 0xFF;
+                if (token < 0x80) {
+                    int n = token + 1;
+                    if (o + n > end) {
+                        throw new IllegalArgumentException("corrupt compressed data, literals overrun the end");
+                    }
+                    System.arraycopy(packed, i, into, o, n);
+                    i += n;
+                    o += n;
+                } else {
+                    int n = (token & 0x7F) + MIN_MATCH;
+                    int distance = (packed[i] & 0xFF) << 8 | packed[i + 1] & 0xFF;
+                    i += 2;
+                    if (distance == 0 || o - distance < offset || o + n > end) {
+                        throw new IllegalArgumentException("corrupt compressed data, bad copy at " + (o - offset));
+                    }
+                    for (int from = o - distance, l = o + n; o < l; ) {
+                        into[o++] = into[from++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("corrupt compressed data, truncated");
+        }
+        return length;
+    }
+
+    private static int decodedLength(byte[] packed) {
+        if (packed.length < 4) {
+            throw new IllegalArgumentException("corrupt compressed data, no length");
+        }
+        int length = (packed[0] & 0xFF) << 24 | (packed[1] & 0xFF) << 16 | (packed[2] & 0xFF) << 8 | packed[3] & 0xFF;
+        if (length < 0 || length > Frame.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("corrupt compressed data, bad length " + length);
+        }
+        return length;
+    }
+
+    private static int matchLength(byte[] data, int from, int at) {
+        int limit = Math.min(data.length - at, MAX_MATCH);
+        int length = 0;
+        while (length < limit && data[from + length] == data[at + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int hash(byte[] data, int i) {
+        int word = (data[i] & 0xFF) << 24 | (data[i + 1] & 0xFF) << 16 | (data[i + 2] & 0xFF) << 8 | data[i + 3] & 0xFF;
+        return word * 0x9E3779B1 >>> (32 - HASH_BITS);
+    }
+
+    private static int literals(byte[] data, int from, int to, byte[] out, int o) {
+        while (from < to) {
+            int n = Math.min(to - from, MAX_LITERALS);
+            out[o++] = (byte)(n - 1);
+            System.arraycopy(data, from, out, o, n);
+            o += n;
+            from += n;
+        }
+        return o;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+
+package com.venaglia.roger.ui.impl;
+
+import com.venaglia.roger.ui.Command;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Asks the console which of several images it already has, and uploads the rest without showing them, so they are
+ * ready by the time they are shown.
+ */
+public class ImageHaveCommand implements Command {
+
+    private static final Pattern MATCH_HAVE_RESPONSE = Pattern.compile("have((?: \\S+)*)");
+
+    private final Map<String,DisplayUpdateCommand> images;
+    private final Set<String> pending;
+
+    /**
+     * @param images The update command for each image, by hash.
+     * @param pending Hashes being checked or uploaded, each hash is removed once this command is done with it.
+     */
+    public ImageHaveCommand(Map<String,DisplayUpdateCommand> images, Set<String> pending) {
+        assert images != null && !images.isEmpty();
+        assert pending != null;
+        this.images = images;
+        this.pending = pending;
+    }
+
+    @Override
+    public String getCommand() {
+        return "image";
+    }
+
+    @Override
+    public String[] getArgs() {
+        String[] args = new String[images.size() + 1];
+        args[0] = "have";
+        int i = 1;
+        for (String hash : images.keySet()) {
+            args[i++] = hash;
+        }
+        return args;
+    }
+
+    @Override
+    public Pattern expectedResponsePattern() {
+        return MATCH_HAVE_RESPONSE;
+    }
+
+    @Override
+    public void handleResponse(Matcher matcher, Consumer<Command> queue) {
+        Set<String> have = new HashSet<>(Arrays.asList(matcher.group(1).trim().split(" ")));
+        for (Map.Entry<String,DisplayUpdateCommand> entry : images.entrySet()) {
+            if (have.contains(entry.getKey())) {
+                entry.getValue().markStored();
+            } else {
+                queue.accept(entry.getValue().upload());
+            }
+        }
+        pending.removeAll(images.keySet());
+    }
+
+    @Override
+    public void handleError(IOException ioe, Consumer<Command> queue) {
+        // older consoles don't know "have", their images are uploaded when they are shown
+        pending.removeAll(images.keySet());
+    }
+}
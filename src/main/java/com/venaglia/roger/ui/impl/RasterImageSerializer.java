@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 - 2017 Ed Venaglia
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package com.venaglia.roger.ui.impl;
+
+import com.google.inject.Singleton;
+import com.venaglia.roger.ui.ImageSerializer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Serializes 160x128 frames in any of the display's pixel formats. The common image types are read straight from
+ * their data buffers, without the per pixel colour model conversion of {@link BufferedImage#getRGB}, and frames can
+ * be written into a buffer the caller reuses. Other image types are read a row at a time with getRGB.
+ *
+ * <p>The 444 and 565 formats can be dithered, which hides the banding of gradients at 12 or 16 bits per pixel. The
+ * default serializer dithers according to the con.image.dither property: none, bayer or floyd-steinberg.
+ */
+@Singleton
+public class RasterImageSerializer implements ImageSerializer {
+
+    public static final int WIDTH = 160;
+    public static final int HEIGHT = 128;
+
+    public enum Format {
+        RGB444(WIDTH * HEIGHT * 3 / 2), // 30720 bytes ~= 31ms @ 8Mbps [16 blocks]
+        RGB565(WIDTH * HEIGHT * 2),     // 40960 bytes ~= 41ms @ 8Mbps [21 blocks]
+        RGB888(WIDTH * HEIGHT * 3);     // 61440 bytes ~= 62ms @ 8Mbps [31 blocks]
+
+        private final int frameSize;
+
+        Format(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
+        public int getFrameSize() {
+            return frameSize;
+        }
+    }
+
+    public enum Dither {
+        NONE, BAYER, FLOYD_STEINBERG;
+
+        public static Dither parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final int[] BAYER_4X4 = {
+             0,  8,  2, 10,
+            12,  4, 14,  6,
+             3, 11,  1,  9,
+            15,  7, 13,  5
+    };
+
+    private final Format format;
+    private final Dither dither;
+    private final int[] bits; // per channel, red, green, blue
+    private final int[] lutR;
+    private final int[] lutG;
+    private final int[] lutB;
+
+    public RasterImageSerializer() {
+        this(Format.RGB444, Dither.parse(System.getProperty("con.image.dither", "none")));
+    }
+
+    public RasterImageSerializer(Format format) {
+        this(format, Dither.NONE);
+    }
+
+    public RasterImageSerializer(Format format, Dither dither) {
+        assert format != null;
+        assert dither != null;
+        this.format = format;
+        this.dither = format == Format.RGB888 ? Dither.NONE : dither; // nothing is lost at 24 bits
+        switch (format) {
+            case RGB444:
+                bits = new int[]{ 4, 4, 4 };
+                int[] lut84 = LUTils.genLUT(8, 4);
+                lutR = lut84;
+                lutG = LUTils.shiftLUT(4, lut84);
+                lutB = LUTils.shiftLUT(8, lut84);
+                break;
+            case RGB565:
+                bits = new int[]{ 5, 6, 5 };
+                int[] lut85 = LUTils.genLUT(8, 5);
+                lutR = lut85;
+                lutG = LUTils.shiftLUT(5, LUTils.genLUT(8, 6));
+                lutB = LUTils.shiftLUT(11, lut85);
+                break;
+            default:
+                bits = new int[]{ 8, 8, 8 };
+                lutR = lutG = lutB = null; // 888 is sent as is
+                break;
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public Dither getDither() {
+        return dither;
+    }
+
+    @Override
+    public String getFormatName() {
+        String name = format.name().toLowerCase();
+        return dither == Dither.NONE ? name : name + "-" + dither.name().toLowerCase().replace('_', '-');
+    }
+
+    @Override
+    public byte[] serialize(BufferedImage bufferedImage) {
+        byte[] buf = new byte[format.getFrameSize()];
+        serialize(bufferedImage, buf, 0);
+        return buf;
+    }
+
+    /**
+     * Writes the frame at the buffer's position, and advances it past the frame.
+     */
+    public void serialize(BufferedImage bufferedImage, ByteBuffer into) {
+        if (into.hasArray()) {
+            int written = serialize(bufferedImage, into.array(), into.arrayOffset() + into.position());
+            into.position(into.position() + written);
+        } else {
+            into.put(serialize(bufferedImage));
+        }
+    }
+
+    /**
+     * @return The number of bytes written, always {@link Format#getFrameSize()}.
+     */
+    public int serialize(BufferedImage bufferedImage, byte[] into, int offset) {
+        if (into.length - offset < format.getFrameSize()) {
+            throw new IllegalArgumentException("buffer too small for a " + format + " frame");
+        }
+        if (bufferedImage.getWidth() < WIDTH || bufferedImage.getHeight() < HEIGHT) {
+            throw new IllegalArgumentException("image smaller than " + WIDTH + "x" + HEIGHT);
+        }
+        Raster raster = bufferedImage.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        int x0 = -raster.getSampleModelTranslateX();
+        int y0 = -raster.getSampleModelTranslateY();
+        int at = offset;
+        Diffusion diffusion = dither == Dither.FLOYD_STEINBERG ? new Diffusion() : null;
+        int[] rgb = new int[WIDTH];
+        switch (bufferedImage.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB: {
+                int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+                int stride = ((SinglePixelPackedSampleModel)sampleModel).getScanlineStride();
+                int row = raster.getDataBuffer().getOffset() + y0 * stride + x0;
+                for (int y = 0; y < HEIGHT; y++, row += stride) {
+                    if (dither == Dither.NONE) {
+                        at = packRow(data, row, into, at);
+                    } else {
+                        System.arraycopy(data, row, rgb, 0, WIDTH); // never dither the image itself
+                        at = packRow(dither(rgb, y, diffusion), 0, into, at);
+                    }
+                }
+                break;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+                ComponentSampleModel components = (ComponentSampleModel)sampleModel;
+                int stride = components.getScanlineStride();
+                int pixelStride = components.getPixelStride();
+                int[] bands = components.getBandOffsets();
+                int row = raster.getDataBuffer().getOffset() + y0 * stride + x0 * pixelStride;
+                for (int y = 0; y < HEIGHT; y++, row += stride) {
+                    for (int x = 0, i = row; x < WIDTH; x++, i += pixelStride) {
+                        rgb[x] = (data[i + bands[0]] & 0xFF) << 16 | (data[i + bands[1]] & 0xFF) << 8 | data[i + bands[2]] & 0xFF;
+                    }
+                    at = packRow(dither(rgb, y, diffusion), 0, into, at);
+                }
+                break;
+            }
+            default: {
+                for (int y = 0; y < HEIGHT; y++) {
+                    bufferedImage.getRGB(0, y, WIDTH, 1, rgb, 0, WIDTH);
+                    at = packRow(dither(rgb, y, diffusion), 0, into, at);
+                }
+                break;
+            }
+        }
+        return at - offset;
+    }
+
+    /**
+     * Replaces each channel of the row with the level it should be shown at, scaled back to 8 bits so the LUTs map it
+     * to exactly that level.
+     */
+    private int[] dither(int[] rgb, int y, Diffusion diffusion) {
+        switch (dither) {
+            case BAYER:
+                for (int x = 0; x < WIDTH; x++) {
+                    int threshold = BAYER_4X4[(y & 3) << 2 | x & 3] * 2 + 1; // in 32nds of a level
+                    int p = rgb[x], q = 0;
+                    for (int c = 0, shift = 16; c < 3; c++, shift -= 8) {
+                        int max = (1 << bits[c]) - 1;
+                        int level = Math.min(((p >> shift & 0xFF) * max * 32 + threshold * 255) / (255 * 32), max);
+                        q |= level << (8 - bits[c]) << shift;
+                    }
+                    rgb[x] = q;
+                }
+                break;
+            case FLOYD_STEINBERG:
+                for (int x = 0; x < WIDTH; x++) {
+                    int p = rgb[x], q = 0;
+                    for (int c = 0, shift = 16; c < 3; c++, shift -= 8) {
+                        int max = (1 << bits[c]) - 1;
+                        int value = (p >> shift & 0xFF) + diffusion.take(c, x);
+                        int level = Math.max(0, Math.min((value * max + 127) / 255, max));
+                        diffusion.spread(c, x, value - (level * 255 + max / 2) / max);
+                        q |= level << (8 - bits[c]) << shift;
+                    }
+                    rgb[x] = q;
+                }
+                diffusion.nextRow();
+                break;
+        }
+        return rgb;
+    }
+
+    private int packRow(int[] rgb, int from, byte[] into, int at) {
+        int[] lutR = this.lutR, lutG = this.lutG, lutB = this.lutB;
+        switch (format) {
+            case RGB444:
+                for (int i = from, l = from + WIDTH; i < l; i += 2) {
+                    int a = rgb[i], b = rgb[i + 1];
+                    int pair = (lutR[a >> 16 & 0xFF] | lutG[a >> 8 & 0xFF] | lutB[a & 0xFF]) << 12
+                             | lutR[b >> 16 & 0xFF] | lutG[b >> 8 & 0xFF] | lutB[b & 0xFF];
+                    into[at++] = (byte)(pair >> 16);
+                    into[at++] = (byte)(pair >> 8);
+                    into[at++] = (byte)pair;
+                }
+                break;
+            case RGB565:
+                for (int i = from, l = from + WIDTH; i < l; i++) {
+                    int p = rgb[i];
+                    int value = lutR[p >> 16 & 0xFF] | lutG[p >> 8 & 0xFF] | lutB[p & 0xFF];
+                    into[at++] = (byte)(value >> 8);
+                    into[at++] = (byte)value;
+                }
+                break;
+            case RGB888:
+                for (int i = from, l = from + WIDTH; i < l; i++) {
+                    int p = rgb[i];
+                    into[at++] = (byte)(p >> 16);
+                    into[at++] = (byte)(p >> 8);
+                    into[at++] = (byte)p;
+                }
+                break;
+        }
+        return at;
+    }
+
+    /**
+     * The quantization error carried forward by Floyd-Steinberg, in sixteenths, for this row and the next.
+     */
+    private static class Diffusion {
+
+        private int[][] row = new int[3][WIDTH + 2]; // padded, so x - 1 and x + 1 never need a bounds check
+        private int[][] next = new int[3][WIDTH + 2];
+
+        int take(int channel, int x) {
+            return row[channel][x + 1] / 16;
+        }
+
+        void spread(int channel, int x, int error) {
+            row[channel][x + 2] += error * 7;
+            next[channel][x] += error * 3;
+            next[channel][x + 1] += error * 5;
+            next[channel][x + 2] += error;
+        }
+
+        void nextRow() {
+            int[][] done = row;
+            row = next;
+            next = done;
+            for (int[] errors : next) {
+                Arrays.fill(errors, 0);
+            }
+        }
+    }
+}
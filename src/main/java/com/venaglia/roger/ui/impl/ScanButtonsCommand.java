@@ -19,10 +19,9 @@ package com.venaglia.roger.ui.impl;
 
 import com.venaglia.roger.ui.Command;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,30 +30,19 @@ import java.util.regex.Pattern;
  */
 public class ScanButtonsCommand implements Command {
 
-    private static Pattern MATCH_DOWN_RESPONSE = Pattern.compile("^down ([-x]{12})");
-    private static Map<String,ScanCode> SCAN_CODE_LOOKUP;
-
-    static {
-        Map<String,ScanCode> lookup = new HashMap<>(32);
-        lookup.put("------------", ScanCode.NO_BUTTONS_DOWN);
-        lookup.put("x-----------", ScanCode.BUTTON_A1_DOWN);
-        lookup.put("-x----------", ScanCode.BUTTON_A2_DOWN);
-        lookup.put("--x---------", ScanCode.BUTTON_A3_DOWN);
-        lookup.put("---x--------", ScanCode.BUTTON_A4_DOWN);
-        lookup.put("----x-------", ScanCode.BUTTON_B1_DOWN);
-        lookup.put("-----x------", ScanCode.BUTTON_B2_DOWN);
-        lookup.put("------x-----", ScanCode.BUTTON_B3_DOWN);
-        lookup.put("-------x----", ScanCode.BUTTON_B4_DOWN);
-        lookup.put("--------x---", ScanCode.BUTTON_C1_DOWN);
-        lookup.put("---------x--", ScanCode.BUTTON_C2_DOWN);
-        lookup.put("----------X-", ScanCode.BUTTON_C3_DOWN);
-        lookup.put("-----------x", ScanCode.BUTTON_C4_DOWN);
-        SCAN_CODE_LOOKUP = Collections.unmodifiableMap(lookup);
-    }
+    private static final Pattern MATCH_DOWN_RESPONSE = Pattern.compile("^down (0x[0-9a-fA-F]{1,8}|[-xX]{12})");
+    private static final String[] MASK_ARGS = { "mask" };
+    private static final String[] FLAGS_ARGS = {};
+    private static final Frame MASK_FRAME = Frame.text("scan mask");
+
+    private final IntConsumer handler;
 
-    private final Consumer<ScanCode> handler;
+    private volatile boolean mask = true;
 
-    public ScanButtonsCommand(Consumer<ScanCode> handler) {
+    /**
+     * @param handler Receives the buttons that are down, bit n is set when button n is down.
+     */
+    public ScanButtonsCommand(IntConsumer handler) {
         this.handler = handler;
     }
 
@@ -65,7 +53,12 @@ public class ScanButtonsCommand implements Command {
 
     @Override
     public String[] getArgs() {
-        return new String[]{};
+        return mask ? MASK_ARGS : FLAGS_ARGS;
+    }
+
+    @Override
+    public Frame getFrame() {
+        return mask ? MASK_FRAME : null; // the same frame every time, this command is sent 20 times a second
     }
 
     @Override
@@ -75,7 +68,57 @@ public class ScanButtonsCommand implements Command {
 
     @Override
     public void handleResponse(Matcher matcher, Consumer<Command> queue) {
-        ScanCode scanCode = SCAN_CODE_LOOKUP.get(matcher.group(1));
-        handler.accept(scanCode == null ? ScanCode.MULTIPLE_BUTTONS_DOWN : scanCode);
+        handler.accept(parseButtons(matcher.group(1)));
+    }
+
+    @Override
+    public void handleError(IOException ioe, Consumer<Command> queue) throws IOException {
+        if (mask && ioe instanceof ErrorResponseException) {
+            mask = false; // older consoles only report flags, the next scan will ask for those
+            return;
+        }
+        throw ioe;
+    }
+
+    /**
+     * @param down Either a hex mask such as "0x0a3", or one character per button, 'x' when it is down and '-'
+     *             when it is up.
+     * @return A bit for each button, bit n is set when button n is down.
+     */
+    public static int parseButtons(CharSequence down) {
+        return parseButtons(down, 0);
+    }
+
+    /**
+     * Like {@link #parseButtons(CharSequence)}, for the buttons starting at {@code start}, without cutting them out.
+     */
+    public static int parseButtons(CharSequence text, int start) {
+        int mask = 0;
+        int l = text.length();
+        if (l - start > 2 && text.charAt(start) == '0' && text.charAt(start + 1) == 'x') {
+            for (int i = start + 2; i < l; i++) {
+                mask = mask << 4 | Character.digit(text.charAt(i), 16);
+            }
+        } else {
+            for (int i = start, e = Math.min(l, start + 32); i < e; i++) {
+                if (text.charAt(i) == 'x' || text.charAt(i) == 'X') {
+                    mask |= 1 << i - start;
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return The mask in the form sent by the "scan mask" command, such as "0x0a3".
+     */
+    public static String formatButtons(int mask, int buttons) {
+        char[] buffer = new char[2 + (buttons + 3) / 4];
+        buffer[0] = '0';
+        buffer[1] = 'x';
+        for (int i = buffer.length - 1; i >= 2; i--, mask >>>= 4) {
+            buffer[i] = Character.forDigit(mask & 0xF, 16);
+        }
+        return new String(buffer);
     }
 }
@@ -36,6 +36,15 @@ public enum ScanCode {
     BUTTON_C4_DOWN,
     MULTIPLE_BUTTONS_DOWN;
 
+    private static final ScanCode[] VALUES = values(); // values() copies the array on every call
+
+    /**
+     * @param button A bit number in a button mask, as reported by {@link ScanButtonsCommand}.
+     */
+    public static ScanCode forButton(int button) {
+        return button >= 0 && button < 12 ? VALUES[button + 1] : MULTIPLE_BUTTONS_DOWN;
+    }
+
     public static ScanCode byCode(String code) {
         switch (code) {
             case "a1": return BUTTON_A1_DOWN;
@@ -27,7 +27,6 @@ import com.venaglia.roger.buttons.SimpleButtonListener;
 import com.venaglia.roger.output.OutputWindow;
 import com.venaglia.roger.ui.ButtonListener;
 import com.venaglia.roger.ui.ButtonProcessor;
-import com.venaglia.roger.ui.ImageSerializer;
 import com.venaglia.roger.ui.UI;
 
 import javax.swing.JFrame;
@@ -36,6 +35,12 @@ import javax.swing.WindowConstants;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -52,27 +57,39 @@ public class UIImpl implements UI {
     private final ButtonProcessor buttonProcessor;
     private final ConClient conClient;
     private final LoadingCache<Button,DisplayUpdateCommand> commandCache;
+    private final Set<String> storedImageHashes = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final DisplayUpdateCommand.Displays displays = new DisplayUpdateCommand.Displays();
     private final ScanButtonsCommand readButtons;
+    private final ScheduledExecutorService executor;
+    private final Set<String> prefetching = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final boolean uploadPrefetched =
+            Boolean.parseBoolean(System.getProperty("con.image.prefetch.upload", "true"));
 
-    private ScanCode scanCode = ScanCode.NO_BUTTONS_DOWN;
-    private Button down = null;
+    private final Button[] pressed = new Button[12]; // what each button was showing when it went down
+
+    private int buttonEvents = 0;
+    private int buttonsDown = 0;
+    private int pollCount = 0;
 
     @Inject
     public UIImpl(OutputWindow outputWindow,
                   ScheduledExecutorService executor,
                   ButtonProcessor buttonProcessor,
                   ConClient conClient,
-                  ImageSerializer imageSerializer) {
+                  FaceCache faceCache) {
         this.outputWindow = outputWindow;
         this.buttonProcessor = buttonProcessor;
         this.conClient = conClient;
+        this.executor = executor;
         this.commandCache = CacheBuilder.newBuilder().initialCapacity(128).build(new CacheLoader<Button, DisplayUpdateCommand>() {
             @Override
             public DisplayUpdateCommand load(Button button) throws Exception {
-                return new DisplayUpdateCommand(button.getButtonFace().getImageDataRGB(imageSerializer));
+                FaceCache.Entry face = faceCache.get(button.getButtonFace());
+                return new DisplayUpdateCommand(face.getImageData(), face.getHash(), storedImageHashes);
             }
         });
-        this.readButtons = new ScanButtonsCommand(this::processScanCode);
+        this.readButtons = new ScanButtonsCommand(this::processPolledButtons);
+        conClient.setEventHandler(this::processButtonEvent);
         executor.scheduleAtFixedRate(this::pollButtons, 250, 50, TimeUnit.MILLISECONDS);
         Arrays.fill(buttons, Button.NIL);
         Arrays.fill(hardButtons, Button.NIL);
@@ -92,27 +109,34 @@ public class UIImpl implements UI {
 
     @Override
     public void showTheseButtons(Button t1, Button t2, Button t3, Button t4, Button b1, Button b2, Button b3) {
-        setButtonImpl(t1, buttons, 0);
-        setButtonImpl(t2, buttons, 1);
-        setButtonImpl(t3, buttons, 2);
-        setButtonImpl(t4, buttons, 3);
-        setButtonImpl(b1, buttons, 4);
-        setButtonImpl(b2, buttons, 5);
-        setButtonImpl(b3, buttons, 6);
+        Map<String,DisplayUpdateCommand> updates = new LinkedHashMap<>(); // one update per distinct image
+        setButtonImpl(t1, buttons, 0, updates);
+        setButtonImpl(t2, buttons, 1, updates);
+        setButtonImpl(t3, buttons, 2, updates);
+        setButtonImpl(t4, buttons, 3, updates);
+        setButtonImpl(b1, buttons, 4, updates);
+        setButtonImpl(b2, buttons, 5, updates);
+        setButtonImpl(b3, buttons, 6, updates);
+        updates.values().forEach(conClient::sendCommand);
     }
 
-    private void setButtonImpl(Button b, Button[] dest, int idx) {
+    private void setButtonImpl(Button b, Button[] dest, int idx, Map<String,DisplayUpdateCommand> updates) {
         assert b != null;
         if (!dest[idx].getId().equals(b.getId())) {
             dest[idx] = b;
-            DisplayUpdateCommand command = null;
+            DisplayUpdateCommand image = null;
             try {
-                command = commandCache.get(b);
+                image = commandCache.get(b);
             } catch (ExecutionException e) {
                 throw new RuntimeException(e.getMessage(), e);
             }
-            command.setDisplayNumber(DisplayNumber.values()[idx]);
-            conClient.sendCommand(command);
+            DisplayUpdateCommand pending = updates.get(image.getHash());
+            if (pending != null) {
+                pending.addDisplayNumber(DisplayNumber.values()[idx]);
+            } else {
+                // a command of its own, the cached one may still be queued for another display
+                updates.put(image.getHash(), image.showOn(DisplayNumber.values()[idx], displays));
+            }
         }
     }
 
@@ -125,6 +149,26 @@ public class UIImpl implements UI {
         hardButtons[4] = topRight;
     }
 
+    @Override
+    public void prefetch(Collection<Button> buttons) {
+        executor.execute(() -> {
+            Map<String,DisplayUpdateCommand> upload = new LinkedHashMap<>();
+            for (Button b : buttons) {
+                if (b == null) {
+                    continue;
+                }
+                DisplayUpdateCommand command = commandCache.getUnchecked(b); // renders it now, instead of when shown
+                String hash = command.getHash();
+                if (uploadPrefetched && !storedImageHashes.contains(hash) && prefetching.add(hash)) {
+                    upload.put(hash, command);
+                }
+            }
+            if (!upload.isEmpty() && !conClient.offerCommand(new ImageHaveCommand(upload, prefetching))) {
+                prefetching.removeAll(upload.keySet()); // busy, try again on the next prefetch
+            }
+        });
+    }
+
     @Override
     public void addListener(SimpleButtonListener listener) {
         addListener(new ButtonListener() {
@@ -145,6 +189,11 @@ public class UIImpl implements UI {
         buttonProcessor.addButtonListener(listener);
     }
 
+    @Override
+    public void addAsyncListener(ButtonListener listener) {
+        buttonProcessor.addAsyncButtonListener(listener);
+    }
+
     @Override
     public void removeListener(ButtonListener listener) {
         buttonProcessor.removeButtonListener(listener);
@@ -156,19 +205,56 @@ public class UIImpl implements UI {
     }
 
     private void pollButtons() {
-        conClient.sendCommand(readButtons);
+        // with events a poll every second keeps the connection alive and recovers from anything missed
+        if (!conClient.isSubscribed() || ++pollCount % 20 == 0) {
+            conClient.sendCommand(readButtons);
+        }
+    }
+
+    private synchronized void processPolledButtons(int down) {
+        if (down == 0) {
+            buttonEvents = 0; // resync, in case an up event was missed
+        }
+        processButtons(down);
+    }
+
+    private synchronized void processButtonEvent(String event) {
+        int space = event.indexOf(' ');
+        try {
+            int button = Integer.parseInt(event.substring(space + 1));
+            if (button >= 0 && button < pressed.length) {
+                int m = 1 << button;
+                buttonEvents = event.startsWith("down ") ? buttonEvents | m : buttonEvents & ~m;
+                processButtons(buttonEvents);
+            }
+        } catch (NumberFormatException e) {
+            // don't care, not a button event
+        }
     }
 
-    private void processScanCode(ScanCode scanCode) {
-        if (this.scanCode == scanCode) return;
-        if (down != null) {
-            buttonProcessor.handleButtonUp(down);
-            down = null;
+    /**
+     * Fires an up or down for each button that changed, so a chord is seen as each of its buttons going down.
+     *
+     * @param down A bit for each button, bit n is set when button n is down.
+     */
+    private void processButtons(int down) {
+        int changed = down ^ buttonsDown;
+        buttonsDown = down;
+        for (int up = changed & ~down; up != 0; up &= up - 1) {
+            int i = Integer.numberOfTrailingZeros(up);
+            if (pressed[i] != null) {
+                buttonProcessor.handleButtonUp(pressed[i]);
+                pressed[i] = null;
+            }
         }
-        down = forScanCode(scanCode);
-        if (down != null) {
-            buttonProcessor.handleButtonDown(down);
-            down = null;
+        for (int pressing = changed & down; pressing != 0; pressing &= pressing - 1) {
+            int i = Integer.numberOfTrailingZeros(pressing);
+            if (i < pressed.length) {
+                pressed[i] = forScanCode(ScanCode.forButton(i));
+                if (pressed[i] != null) {
+                    buttonProcessor.handleButtonDown(pressed[i]);
+                }
+            }
         }
     }
 
@@ -0,0 +1,79 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks that a {@link CompiledDictionary} mapped from a file answers like the text dictionary it was compiled from.
+ */
+public class CompiledDictionaryTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        TreeMap<String,String[]> forms = new TreeMap<>();
+        forms.put("krt", new String[]{ "cart", "kart" });
+        forms.put("krtn", new String[]{ "carton" });
+        forms.put("kt", new String[]{ "cat", "cät" });
+        forms.put("été", new String[]{ "été" });
+        Map<String,Integer> frequencies = new HashMap<>();
+        frequencies.put("cart", 50);
+        frequencies.put("cät", 7);
+        NavigableSet<String> words = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        forms.values().forEach(w -> words.addAll(Arrays.asList(w)));
+        DictionaryTuple source = new DictionaryTuple("test",
+                                                     Collections.singleton(Locale.FRENCH),
+                                                     words,
+                                                     forms,
+                                                     new TreeMap<>(),
+                                                     frequencies);
+        File file = File.createTempFile("dictionary", ".dict");
+        try {
+            CompiledDictionary.write(source, "words:test", file);
+            CompiledDictionary compiled = CompiledDictionary.map(file);
+            assertEquals("words:test", compiled.getSource());
+            assertTrue(compiled.hasCurrentReducers());
+            assertEquals("test", compiled.getName());
+            assertEquals(Collections.singleton(Locale.FRENCH), compiled.getLanguages());
+            assertEquals(6, compiled.getWordCount());
+            assertEquals(4, compiled.getFormCount());
+            Map<String,Integer> actual = new HashMap<>();
+            for (int word = 0; word < compiled.getWordCount(); word++) {
+                actual.put(compiled.getWord(word), compiled.getFrequency(word));
+            }
+            assertEquals(words.size(), actual.size());
+            for (String word : words) {
+                assertEquals(word, frequencies.getOrDefault(word, 0), actual.get(word));
+            }
+            PrefixIndex index = compiled.getIndex();
+            assertEquals(50, index.best().get(PrefixIndex.ROOT));
+            for (String prefix : Arrays.asList("", "k", "kr", "krtn", "é", "x")) {
+                Set<String> expected = new HashSet<>();
+                forms.subMap(prefix, prefix + "\uFFFF").values().forEach(w -> expected.addAll(Arrays.asList(w)));
+                Set<String> visited = new HashSet<>();
+                index.visitBest(index.find(prefix), (node, form, best) -> {
+                    if (form >= 0) {
+                        compiled.forEachWord(form, word -> visited.add(compiled.getWord(word)));
+                    }
+                    return true;
+                });
+                assertEquals(prefix, expected, visited);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
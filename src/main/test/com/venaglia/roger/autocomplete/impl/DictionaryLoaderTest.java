@@ -0,0 +1,76 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.venaglia.roger.bundle.Bundle;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Checks that {@link DictionaryLoader} keeps the dictionary it compiles for a bundle, and compiles it again when the
+ * file it finds was compiled from another bundle.
+ */
+public class DictionaryLoaderTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dictionary").toFile();
+        System.setProperty("con.dictionary.dir", dir.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("con.dictionary.dir");
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void compilesOncePerBundle() throws Exception {
+        File file = new File(dir, "dictionary-b1.dict");
+        CompiledDictionary first = loader("b1").get();
+        assertEquals("bundle:b1", first.getSource());
+        assertEquals(2, first.getWordCount());
+        assertTrue(file.exists());
+        long modified = file.lastModified();
+        assertEquals(2, loader("b1").get().getWordCount());
+        assertEquals(modified, file.lastModified());
+
+        CompiledDictionary.write(loader("b0").loadSource(), "bundle:b0", file); // left over from another bundle
+        assertEquals("bundle:b1", loader("b1").get().getSource());
+        assertEquals("bundle:b1", CompiledDictionary.map(file).getSource());
+
+        assertEquals("bundle:b2", loader("b2").get().getSource());
+        assertFalse(file.exists());
+    }
+
+    private DictionaryLoader loader(String id) {
+        return new DictionaryLoader(new Bundle() {
+            @Override
+            public String getId() {
+                return id;
+            }
+        }) {
+            @Override
+            protected InputStream getStream(String source) {
+                String text = source.equals("dictionary.txt")
+                              ? "English\n  iso639: en\n  words: en.txt\n"
+                              : "kt;cat;5\nkrm;cream;20\n";
+                return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+    }
+}
@@ -0,0 +1,109 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Checks {@link PrefixIndex} against the sorted map lookups it replaces.
+ */
+public class PrefixIndexTest {
+
+    @Test
+    public void matchesSubMap() {
+        Random random = new Random(7);
+        TreeMap<String,String[]> forms = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder form = new StringBuilder();
+            for (int l = 1 + random.nextInt(7); l > 0; l--) {
+                form.append((char)('a' + random.nextInt(5)));
+            }
+            forms.put(form.toString(), new String[]{ form + "-" + i });
+        }
+        PrefixIndex index = new PrefixIndex(forms, form -> 0);
+        List<String> formKeys = new ArrayList<>(forms.keySet());
+        for (String prefix : Arrays.asList("", "a", "ab", "cab", "eeee", "abcdeab", "z")) {
+            Set<String> expected = new HashSet<>();
+            for (String[] words : forms.subMap(prefix, prefix + "\uFFFF").values()) {
+                expected.addAll(Arrays.asList(words));
+            }
+            Set<String> actual = new LinkedHashSet<>();
+            index.visitBest(index.find(prefix), (node, form, best) -> {
+                if (form >= 0) {
+                    actual.addAll(Arrays.asList(forms.get(formKeys.get(form))));
+                }
+                return true;
+            });
+            assertEquals(prefix, expected, actual);
+        }
+    }
+
+    @Test
+    public void shortestFirstAndStopsWhenAsked() {
+        TreeMap<String,String[]> forms = new TreeMap<>();
+        forms.put("krt", new String[]{ "cart", "kart" });
+        forms.put("krtn", new String[]{ "carton" });
+        forms.put("krts", new String[]{ "carts" });
+        forms.put("krtsn", new String[]{ "cartesian" });
+        forms.put("kt", new String[]{ "cat" });
+        PrefixIndex index = new PrefixIndex(forms, form -> 0);
+        List<String> formKeys = new ArrayList<>(forms.keySet());
+        List<String> visited = new ArrayList<>();
+        index.visitBest(index.find("kr"), (node, form, best) -> { // all equal, so the shallowest first
+            return form < 0 || visited.add(formKeys.get(form)) && visited.size() < 3;
+        });
+        assertEquals(Arrays.asList("krt", "krtn", "krts"), visited);
+        visited.clear();
+        index.visitBest(index.find("kz"), (node, form, best) -> visited.add(formKeys.get(form)));
+        assertTrue(visited.isEmpty());
+    }
+
+    @Test
+    public void visitsBestFirst() {
+        Random random = new Random(5);
+        TreeMap<String,String[]> forms = new TreeMap<>();
+        for (int i = 0; i < 500; i++) {
+            StringBuilder form = new StringBuilder();
+            for (int l = 1 + random.nextInt(6); l > 0; l--) {
+                form.append((char)('a' + random.nextInt(4)));
+            }
+            forms.put(form.toString(), new String[0]);
+        }
+        int[] values = new int[forms.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(4) == 0 ? random.nextInt(1000) : 0;
+        }
+        PrefixIndex index = new PrefixIndex(forms, form -> values[form]);
+        List<Integer> visited = new ArrayList<>();
+        int[] last = { Integer.MAX_VALUE, -1 };
+        index.visitBest(PrefixIndex.ROOT, (node, form, best) -> {
+            assertEquals(max(index, node, values), best);
+            assertTrue(best < last[0] || best == last[0] && node > last[1]);
+            last[0] = best;
+            last[1] = node;
+            visited.add(node);
+            return true;
+        });
+        assertEquals(index.size(), new HashSet<>(visited).size());
+        assertEquals(index.size(), visited.size());
+    }
+
+    private static int max(PrefixIndex index, int node, int[] values) {
+        int form = index.values().get(node);
+        int max = form >= 0 ? values[form] : 0;
+        for (int c = index.firstChild().get(node), l = index.firstChild().get(node + 1); c < l; c++) {
+            max = Math.max(max, max(index, c, values));
+        }
+        return max;
+    }
+}
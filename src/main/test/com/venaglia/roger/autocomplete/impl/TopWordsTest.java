@@ -0,0 +1,56 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks {@link TopWords} against sorting every candidate.
+ */
+public class TopWordsTest {
+
+    @Test
+    public void keepsTheBest() {
+        Random random = new Random(11);
+        List<Integer> scores = new ArrayList<>();
+        TopWords top = new TopWords(10);
+        for (int i = 0; i < 1000; i++) {
+            int score = random.nextInt(100000);
+            scores.add(score);
+            top.offer(score, score);
+        }
+        scores.sort(Collections.reverseOrder());
+        List<Integer> expected = new ArrayList<>();
+        for (int score : scores) {
+            if (expected.size() < 10 && !expected.contains(score)) {
+                expected.add(score);
+            }
+        }
+        assertTrue(top.isFull());
+        assertArrayEquals(expected.stream().mapToInt(Integer::intValue).toArray(), top.best());
+    }
+
+    @Test
+    public void repeatsKeepTheirBestScoreAndTiesKeepTheirOrder() {
+        int cart = 0, kart = 1, cat = 2, carton = 3;
+        TopWords top = new TopWords(3);
+        top.offer(cart, 1.0);
+        top.offer(kart, 1.0);
+        top.offer(cat, 0.5);
+        assertFalse(top.admits(0.5, 0L));
+        assertTrue(top.admits(0.75, Long.MAX_VALUE));
+        top.offer(cat, 2.0);
+        top.offer(kart, -1.0);
+        top.offer(carton, 1.0); // ties the worst, doesn't get in
+        assertArrayEquals(new int[]{ cat, cart, kart }, top.best());
+        assertFalse(new TopWords(3).isFull());
+    }
+}
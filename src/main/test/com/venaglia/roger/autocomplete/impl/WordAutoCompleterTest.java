@@ -0,0 +1,40 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Checks that {@link WordAutoCompleter} matches forms that span the last few words.
+ */
+public class WordAutoCompleterTest {
+
+    private static final String FORMS = "cat;cat;5\n" +
+                                        "cream;cream;20\n" +
+                                        "ice cream;ice cream;10\n" +
+                                        "nice;nice;8\n";
+
+    @Test
+    public void matchesFormsWithSpaces() {
+        WordAutoCompleter autoCompleter = new WordAutoCompleter(new DictionaryLoader() {
+            @Override
+            protected InputStream getStream(String source) {
+                String text = source.equals("dictionary.txt") ? "English\n  iso639: en\n  words: en.txt\n" : FORMS;
+                return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        assertEquals(Arrays.asList("cream", "ice cream"),
+                     new ArrayList<>(autoCompleter.suggestWord("i like ice cr", 3)));
+        assertEquals(Arrays.asList("cream", "ice cream"),
+                     new ArrayList<>(autoCompleter.suggestWord("one two three ice cr", 3)));
+        assertEquals(Collections.singletonList("ice cream"),
+                     new ArrayList<>(autoCompleter.suggestWord("some ice", 3)));
+    }
+}
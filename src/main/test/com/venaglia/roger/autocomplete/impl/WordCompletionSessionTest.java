@@ -0,0 +1,76 @@
+package com.venaglia.roger.autocomplete.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.venaglia.roger.autocomplete.CompletionSession;
+import com.venaglia.roger.autocomplete.SuggestionDelta;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that a {@link WordCompletionSession} suggests what {@link WordAutoCompleter#suggestWord} would for the
+ * whole text, forms spanning words included, and that its deltas add up.
+ */
+public class WordCompletionSessionTest {
+
+    private static final String FORMS = "cart;cart,kart;50,0\n" +
+                                        "carton;carton;2\n" +
+                                        "cat;cat;5\n" +
+                                        "kart;cart,kart;50,0\n" +
+                                        "krt;cart,kart;50,0\n" +
+                                        "krtn;carton;2\n" +
+                                        "kt;cat;5\n" +
+                                        "quick;quick;30\n" +
+                                        "kk;quick;30\n" +
+                                        "sat;sat,cat;9,5\n" +
+                                        "st;sat;9\n" +
+                                        "cat sat;cat sat;40\n" +
+                                        "kt st;cat sat;40\n" +
+                                        "quick cat sat;quick cat sat;60\n";
+
+    @Test
+    public void matchesSuggestWord() {
+        WordAutoCompleter autoCompleter = new WordAutoCompleter(new DictionaryLoader() {
+            @Override
+            protected InputStream getStream(String source) {
+                String text = source.equals("dictionary.txt") ? "English\n  iso639: en\n  words: en.txt\n" : FORMS;
+                return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        Random random = new Random(9);
+        String[] keys = { "c", "a", "r", "t", "k", "q", "u", "i", "s", " ", "on", "Ca", "cat ", "quick " };
+        CompletionSession session = autoCompleter.startSession(3);
+        List<String> appended = new ArrayList<>();
+        Set<String> shown = new LinkedHashSet<>();
+        for (int n = 0; n < 3000; n++) {
+            SuggestionDelta delta;
+            if (!appended.isEmpty() && random.nextInt(3) == 0) {
+                appended.remove(appended.size() - 1);
+                delta = session.backspace();
+            } else {
+                String key = keys[random.nextInt(keys.length)];
+                appended.add(key);
+                delta = session.append(key);
+            }
+            String text = String.join("", appended);
+            assertEquals(text, new ArrayList<>(autoCompleter.suggestWord(text, 3)), session.getSuggestions());
+            shown.removeAll(delta.getRemoved());
+            shown.addAll(delta.getAdded());
+            assertEquals(text, new LinkedHashSet<>(session.getSuggestions()), shown);
+        }
+        SuggestionDelta delta = session.clear();
+        shown.removeAll(delta.getRemoved());
+        shown.addAll(delta.getAdded());
+        assertEquals(new LinkedHashSet<>(autoCompleter.suggestWord("", 3)), shown);
+        assertTrue(session.backspace().isEmpty());
+    }
+}
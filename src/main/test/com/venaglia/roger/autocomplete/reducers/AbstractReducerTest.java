@@ -0,0 +1,96 @@
+package com.venaglia.roger.autocomplete.reducers;
+
+import static org.junit.Assert.assertEquals;
+
+import com.venaglia.roger.autocomplete.Reducer;
+import org.junit.Test;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks the compiled reducers against trying every rule at every position.
+ */
+public class AbstractReducerTest {
+
+    @Test
+    public void longestMatch() {
+        HardConsonantReducer hard = new HardConsonantReducer();
+        assertEquals("kz", hard.reduce("cz")); // "ck" sorts between "c" and "cz", but "c" still applies
+        assertEquals("ks", hard.reduce("xx"));
+        assertEquals("bake", hard.reduce("Bake"));
+        assertEquals("k  t", hard.reduce(" Ca--a, tea!"));
+        assertEquals("sft", new SoftConsonantReducer().reduce("Psyft"));
+        assertEquals("e te", new IdentityReducer().reduce("Été"));
+    }
+
+    @Test
+    public void matchesEveryRuleAtEveryPosition() {
+        Random random = new Random(3);
+        char[] alphabet = "abcdeghklpqstuxyz -É".toCharArray();
+        for (AbstractReducer reducer : Arrays.asList(new HardConsonantReducer(), new SoftConsonantReducer())) {
+            StringBuilder buffer = new StringBuilder();
+            for (int n = 0; n < 5000; n++) {
+                char[] word = new char[1 + random.nextInt(12)];
+                for (int i = 0; i < word.length; i++) {
+                    word[i] = alphabet[random.nextInt(alphabet.length)];
+                }
+                String text = new String(word);
+                buffer.setLength(0);
+                buffer.append('>');
+                reducer.reduce(text, buffer);
+                String expected = reference(reducer.getRules(), text);
+                assertEquals(text, expected, reducer.reduce(text));
+                assertEquals(text, ">" + expected, buffer.toString());
+            }
+        }
+    }
+
+    @Test
+    public void incrementalMatchesReducingEverything() {
+        Random random = new Random(5);
+        char[] alphabet = "acehkqsuxz -É".toCharArray();
+        for (AbstractReducer reducer : Arrays.asList(new IdentityReducer(), new HardConsonantReducer())) {
+            Reducer.Incremental incremental = reducer.incremental();
+            StringBuilder text = new StringBuilder();
+            String before = "";
+            for (int n = 0; n < 5000; n++) {
+                if (text.length() > 0 && random.nextInt(3) == 0) {
+                    text.setLength(random.nextInt(text.length()));
+                    incremental.truncate(text.length());
+                } else {
+                    char c = alphabet[random.nextInt(alphabet.length)];
+                    text.append(c);
+                    incremental.append(c);
+                }
+                String reduced = incremental.getReduced().toString();
+                assertEquals(text.toString(), reducer.reduce(text.toString()), reduced.trim());
+                int unchanged = incremental.getUnchanged();
+                assertEquals(before.substring(0, unchanged), reduced.substring(0, unchanged));
+                String lastWord = reduced.substring(0, incremental.getLastWordEnd());
+                String[] words = Reducer.IDENTITY.reduce(text.toString()).split(" ");
+                String expected = reducer.reduce(words[words.length - 1]);
+                assertEquals(text.toString(), expected, lastWord.substring(lastWord.lastIndexOf(' ') + 1));
+                before = reduced;
+            }
+        }
+    }
+
+    private static String reference(Map<String,String> rules, String word) {
+        word = Normalizer.normalize(word, Normalizer.Form.NFD).toLowerCase().replaceAll("[^a-z]+", " ");
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < word.length(); ) {
+            int longest = 0;
+            for (String from : rules.keySet()) {
+                if (from.length() > longest && word.startsWith(from, i)) {
+                    longest = from.length();
+                }
+            }
+            out.append(longest > 0 ? rules.get(word.substring(i, i + longest)) : word.substring(i, i + 1));
+            i += Math.max(1, longest);
+        }
+        return out.toString().trim();
+    }
+}
@@ -0,0 +1,91 @@
+package com.venaglia.roger.autocomplete.reducers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.Normalizer;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+
+/**
+ * Compares the compiled {@link AbstractReducer} to the sorted map lookups it replaced, reducing the suffix windows of
+ * a phrase the way {@code WordAutoCompleter} does on each keystroke.
+ */
+@State(Scope.Thread)
+public class ReducerBenchmark {
+
+    private static final String[] WINDOWS = {
+            "the quick brown fox jumps", "quick brown fox jumps", "brown fox jumps", "fox jumps", "jumps"
+    };
+
+    private HardConsonantReducer reducer;
+    private TreeMap<String,String> rules;
+    private StringBuilder buffer;
+
+    @Setup
+    public void setUp() {
+        reducer = new HardConsonantReducer();
+        rules = new TreeMap<>(reducer.getRules());
+        buffer = new StringBuilder(64);
+    }
+
+    @Benchmark
+    public void automaton(Blackhole blackhole) {
+        for (String window : WINDOWS) {
+            buffer.setLength(0);
+            reducer.reduce(window, buffer);
+            blackhole.consume(buffer.length());
+        }
+    }
+
+    @Benchmark
+    public void automatonToString(Blackhole blackhole) {
+        for (String window : WINDOWS) {
+            blackhole.consume(reducer.reduce(window));
+        }
+    }
+
+    @Benchmark
+    public void sortedMap(Blackhole blackhole) {
+        for (String window : WINDOWS) {
+            blackhole.consume(floorReduce(window));
+        }
+    }
+
+    /**
+     * The reduction as it was done before the automaton.
+     */
+    private String floorReduce(String word) {
+        NavigableSet<String> entries = rules.navigableKeySet();
+        word = Normalizer.normalize(word, Normalizer.Form.NFD).toLowerCase().replaceAll("[^a-z]+", " ");
+        int l = word.length();
+        StringBuilder out = new StringBuilder(l + l >> 2 + 2);
+        int i = 0;
+        while (i < l) {
+            String substring = word.substring(i);
+            String key = entries.floor(substring);
+            if (key != null && substring.startsWith(key)) {
+                out.append(rules.get(key));
+                i += key.length();
+            } else {
+                out.append(word.charAt(i));
+                i++;
+            }
+        }
+        return out.toString().trim();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ReducerBenchmark.class.getSimpleName())
+                                       .forks(1)
+                                       .warmupIterations(5)
+                                       .measurementIterations(5)
+                                       .build()).run();
+    }
+}
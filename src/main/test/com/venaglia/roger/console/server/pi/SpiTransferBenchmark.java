@@ -0,0 +1,67 @@
+package com.venaglia.roger.console.server.pi;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+
+/**
+ * Measures the cost of feeding frames through {@link SpiTransfer} without SPI hardware. The stub sink touches the
+ * first and last byte of every chunk, like a full duplex transfer overwriting the buffer would.
+ */
+@State(Scope.Thread)
+public class SpiTransferBenchmark {
+
+    @Param({ "160", "2000", "4096" })
+    public int chunkSize;
+
+    private SpiTransfer transfer;
+    private Blackhole blackhole;
+    private byte[] frame444 = new byte[160 * 128 * 3 / 2];
+    private byte[] frame888 = new byte[160 * 128 * 3];
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        Random random = new Random(1);
+        random.nextBytes(frame444);
+        random.nextBytes(frame888);
+        transfer = new SpiTransfer(this::sink, chunkSize);
+    }
+
+    private void sink(int channel, byte[] buffer, int length) {
+        blackhole.consume(buffer[0] ^ buffer[length - 1]);
+        buffer[0] = buffer[length - 1] = (byte)0xFF;
+    }
+
+    @Benchmark
+    public void fullFrame444() throws Exception {
+        transfer.send(1, (byte)0x2C, frame444);
+    }
+
+    @Benchmark
+    public void fullFrame888() throws Exception {
+        transfer.send(1, (byte)0x2C, frame888);
+    }
+
+    @Benchmark
+    public void labelRegion444() throws Exception {
+        // a 64x16 label in the middle of a 12-bit frame
+        transfer.send(1, (byte)0x2C, frame444, 56 * 240 + 48 * 3 / 2, 64 * 3 / 2, 240, 16);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SpiTransferBenchmark.class.getSimpleName())
+                                       .forks(1)
+                                       .warmupIterations(5)
+                                       .measurementIterations(5)
+                                       .build()).run();
+    }
+}
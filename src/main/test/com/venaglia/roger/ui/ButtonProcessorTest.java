@@ -1,5 +1,6 @@
 package com.venaglia.roger.ui;
 
+import com.google.common.base.Ticker;
 import com.venaglia.roger.buttons.Button;
 import com.venaglia.roger.buttons.TestButtonLoader;
 import org.junit.After;
@@ -10,6 +11,7 @@ import static org.junit.Assert.*;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 /**
@@ -26,6 +28,7 @@ public class ButtonProcessorTest {
     private Supplier<Set<Button>> buttonsDown;
     private Supplier<Integer> queueSize;
     private Runnable runOnExit;
+    private Runnable runDueWork;
 
     @Before
     public void setUp() throws Exception {
@@ -37,7 +40,8 @@ public class ButtonProcessorTest {
         buttonProcessor = new ButtonProcessor(intervals,
                                               (b) -> buttonsDown = b,
                                               (q) -> queueSize = q,
-                                              (r) -> runOnExit = r);
+                                              (r) -> runOnExit = r,
+                                              (r) -> runDueWork = r);
         TestButtonListener listener = new TestButtonListener();
         eventCounters = listener.getEventCounter();
         buttonProcessor.addButtonListener(listener);
@@ -87,23 +91,23 @@ public class ButtonProcessorTest {
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0);
         buttonProcessor.handleButtonDown(buttonA);
-        long downAt = System.currentTimeMillis();
+        long downAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown(buttonA);
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, downAt - System.currentTimeMillis() + intervals.click_a()));
+        sleep(Math.max(2, downAt - now() + intervals.click_a()));
         buttonProcessor.handleButtonUp(buttonA);
-        long upAt = System.currentTimeMillis();
+        long upAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown();
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 1, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, upAt - System.currentTimeMillis() + intervals.eventDelay() + 10));
+        sleep(Math.max(2, upAt - now() + intervals.eventDelay() + 10));
         assertEquals(0, queueSize.get().intValue());
         assertOnlyButtonsDown();
         eventCounters.getFor(buttonA).assertCounts(1, 1, 1, 0, 0).assertCounts(0, 0, 0);
@@ -120,14 +124,14 @@ public class ButtonProcessorTest {
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0);
         buttonProcessor.handleButtonDown(buttonA);
-        long downAt = System.currentTimeMillis();
+        long downAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown(buttonA);
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, downAt - System.currentTimeMillis() + intervals.click_b()));
+        sleep(Math.max(2, downAt - now() + intervals.click_b()));
         buttonProcessor.handleButtonUp(buttonA);
         assertEquals(0, queueSize.get().intValue());
         assertOnlyButtonsDown();
@@ -146,23 +150,23 @@ public class ButtonProcessorTest {
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0);
         buttonProcessor.handleButtonDown(buttonA);
-        long downAt = System.currentTimeMillis();
+        long downAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown(buttonA);
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, downAt - System.currentTimeMillis() + intervals.longPress_a()));
+        sleep(Math.max(2, downAt - now() + intervals.longPress_a()));
         buttonProcessor.handleButtonUp(buttonA);
-        long upAt = System.currentTimeMillis();
+        long upAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown();
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 1, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, upAt - System.currentTimeMillis() + intervals.eventDelay() + 10));
+        sleep(Math.max(2, upAt - now() + intervals.eventDelay() + 10));
         assertEquals(0, queueSize.get().intValue());
         assertOnlyButtonsDown();
         eventCounters.getFor(buttonA).assertCounts(1, 1, 0, 1, 0).assertCounts(0, 0, 0);
@@ -180,14 +184,14 @@ public class ButtonProcessorTest {
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0);
         buttonProcessor.handleButtonDown(buttonA);
-        long downAt = System.currentTimeMillis();
+        long downAt = now();
         assertEquals(1, queueSize.get().intValue());
         assertOnlyButtonsDown(buttonA);
         sleep(2);
         eventCounters.getFor(buttonA).assertCounts(1, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonB).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
         eventCounters.getFor(buttonC).assertCounts(0, 0, 0, 0, 0).assertCounts(0, 0, 0);
-        sleep(Math.max(2, downAt - System.currentTimeMillis() + intervals.longPress_b() + intervals.longPressRepeat() * 2 + 50));
+        sleep(Math.max(2, downAt - now() + intervals.longPress_b() + intervals.longPressRepeat() * 2 + 50));
         buttonProcessor.handleButtonUp(buttonA);
         assertEquals(0, queueSize.get().intValue());
         assertOnlyButtonsDown();
@@ -249,11 +253,14 @@ public class ButtonProcessorTest {
         eventCounters.getFor(buttonC).assertCounts(1, 1, 0, 0, 0).assertCounts(1, 0, 0);
     }
 
+    private long now() {
+        return intervals.ticker.now();
+    }
+
     private void sleep(long ms) {
-        try {
-            Thread.sleep(ms);
-        } catch (InterruptedException e) {
-            // don't care
+        for (long i = 0; i < ms; i++) {
+            intervals.ticker.advance(1); // a millisecond at a time, as work reschedules from when it ran
+            runDueWork.run();
         }
     }
 
@@ -370,8 +377,33 @@ public class ButtonProcessorTest {
         void clear();
     }
 
+    private static class VirtualTicker extends Ticker {
+
+        private long nanos = 0;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        long now() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+
+        void advance(long ms) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+    }
+
     private static class TestIntervals extends Intervals {
 
+        private final VirtualTicker ticker = new VirtualTicker();
+
+        @Override
+        public Ticker ticker() {
+            return ticker;
+        }
+
         @Override
         public long eventDelay() {
             return 200L;
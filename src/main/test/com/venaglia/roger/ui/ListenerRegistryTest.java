@@ -0,0 +1,55 @@
+package com.venaglia.roger.ui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Checks that a slow asynchronous listener holds up neither the firing thread nor the other listeners.
+ */
+public class ListenerRegistryTest {
+
+    @Test
+    public void slowListenerDoesNotBlock() throws InterruptedException {
+        ListenerRegistry<IntConsumer> registry = new ListenerRegistry<>("Test");
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch slowDone = new CountDownLatch(3);
+        AtomicInteger fast = new AtomicInteger();
+        registry.addAsync(i -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // don't care
+            }
+            slowDone.countDown();
+        }, 4);
+        registry.add(fast::addAndGet);
+        for (int i = 1; i <= 3; i++) {
+            int n = i;
+            registry.fire(l -> l.accept(n));
+        }
+        assertEquals(6, fast.get()); // delivered before the slow listener got past its first event
+        release.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void removeWhileFiring() {
+        ListenerRegistry<Runnable> registry = new ListenerRegistry<>("Test");
+        AtomicInteger calls = new AtomicInteger();
+        Runnable[] second = new Runnable[1];
+        registry.add(() -> registry.remove(second[0]));
+        second[0] = calls::incrementAndGet;
+        registry.add(second[0]);
+        registry.fire(Runnable::run); // still goes to the listener removed along the way
+        registry.fire(Runnable::run);
+        assertEquals(1, calls.get());
+        assertEquals(false, registry.isEmpty());
+    }
+}
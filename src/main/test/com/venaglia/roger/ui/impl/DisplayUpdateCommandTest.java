@@ -0,0 +1,67 @@
+package com.venaglia.roger.ui.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.venaglia.roger.ui.Command;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Checks that a {@link DisplayUpdateCommand} held up by an upload doesn't bring back an old face.
+ */
+public class DisplayUpdateCommandTest {
+
+    @Test
+    public void lateShowLeavesNewerFaceAlone() {
+        Set<String> stored = new HashSet<>();
+        DisplayUpdateCommand a = new DisplayUpdateCommand(face(1), stored);
+        DisplayUpdateCommand b = new DisplayUpdateCommand(face(2), stored);
+        stored.add(b.getHash());
+        DisplayUpdateCommand.Displays displays = new DisplayUpdateCommand.Displays();
+        List<Command> queue = new ArrayList<>();
+
+        DisplayUpdateCommand showA = a.showOn(DisplayNumber.DISPLAY0, displays);
+        DisplayUpdateCommand showB = b.showOn(DisplayNumber.DISPLAY0, displays);
+        assertArrayEquals(new String[]{ "show-or-need", a.getHash(), "0x00" }, showA.getArgs()); // B is newer
+        respond(showA, "need " + a.getHash(), queue);
+        assertEquals(1, queue.size()); // still uploaded
+        assertArrayEquals(new String[]{ "show", b.getHash(), "0x80" }, showB.getArgs());
+        respond(showB, "ok", queue);
+        queue.clear();
+        assertEquals("store", showA.getArgs()[0]);
+        respond(showA, "ok", queue);
+        assertTrue(queue.isEmpty()); // not shown over B
+        assertTrue(stored.contains(a.getHash()));
+    }
+
+    @Test
+    public void eachShowHasItsOwnDisplays() {
+        DisplayUpdateCommand.Displays displays = new DisplayUpdateCommand.Displays();
+        DisplayUpdateCommand image = new DisplayUpdateCommand(face(3));
+        DisplayUpdateCommand first = image.showOn(DisplayNumber.DISPLAY0, displays);
+        first.addDisplayNumber(DisplayNumber.DISPLAY1);
+        DisplayUpdateCommand second = image.showOn(DisplayNumber.DISPLAY2, displays);
+        assertEquals("0xc0", first.getArgs()[2]);
+        assertEquals("0x20", second.getArgs()[2]);
+        assertEquals("0xff", image.getArgs()[2]);
+    }
+
+    private static void respond(Command command, String response, List<Command> queue) {
+        Matcher matcher = command.expectedResponsePattern().matcher(response);
+        assertTrue(response, matcher.matches());
+        command.handleResponse(matcher, queue::add);
+    }
+
+    private static byte[] face(int seed) {
+        byte[] data = new byte[128 * 160 * 3];
+        data[0] = (byte)seed;
+        return data;
+    }
+}
@@ -0,0 +1,74 @@
+package com.venaglia.roger.ui.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.venaglia.roger.buttons.ButtonFace;
+import com.venaglia.roger.buttons.TestButtonLoader;
+import com.venaglia.roger.ui.ImageSerializer;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Dither;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Format;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that faces come back from the {@link FaceCache} file exactly as they were rendered, without rendering again.
+ */
+public class FaceCacheTest {
+
+    @Test
+    public void readsFacesBack() throws IOException {
+        File dir = Files.createTempDirectory("faces").toFile();
+        File file = new File(dir, "faces-test.cache");
+        try {
+            AtomicInteger renders = new AtomicInteger();
+            List<ButtonFace> faces = faces();
+            new FaceCache(counting(Format.RGB444, renders)).load(file, faces);
+            assertEquals(2, renders.get());
+
+            FaceCache cache = new FaceCache(counting(Format.RGB444, renders));
+            cache.load(file, faces());
+            for (ButtonFace face : faces) {
+                FaceCache.Entry entry = cache.get(face);
+                byte[] expected = face.serialize(new RasterImageSerializer(Format.RGB444, Dither.NONE));
+                assertArrayEquals(expected, entry.getImageData());
+                assertEquals(Sha256.digest(expected), entry.getHash());
+            }
+            assertEquals("read from the file", 2, renders.get());
+
+            new FaceCache(counting(Format.RGB565, renders)).load(file, faces());
+            assertEquals("rebuilt for another format", 4, renders.get());
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    private List<ButtonFace> faces() {
+        return Arrays.asList(TestButtonLoader.getSimpleButton("a", "Yes").getButtonFace(),
+                             TestButtonLoader.getSimpleButton("b", "No").getButtonFace());
+    }
+
+    private ImageSerializer counting(Format format, AtomicInteger renders) {
+        RasterImageSerializer serializer = new RasterImageSerializer(format, Dither.NONE);
+        return new ImageSerializer() {
+            @Override
+            public byte[] serialize(BufferedImage bufferedImage) {
+                renders.incrementAndGet();
+                return serializer.serialize(bufferedImage);
+            }
+
+            @Override
+            public String getFormatName() {
+                return serializer.getFormatName();
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package com.venaglia.roger.ui.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips typical and awkward data through {@link FrameCodec}.
+ */
+public class FrameCodecTest {
+
+    @Test
+    public void buttonFace() {
+        BufferedImage image = new BufferedImage(160, 128, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(new Color(0x203040));
+        g.fillRect(0, 0, 160, 128);
+        g.setColor(Color.WHITE);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 24));
+        g.drawString("Yes", 56, 72);
+        g.dispose();
+        byte[] data = new RasterImageSerializer().serialize(image);
+        byte[] packed = FrameCodec.compress(data);
+        assertTrue("only shrank to " + packed.length, packed.length < data.length / 8);
+        assertArrayEquals(data, FrameCodec.decompress(packed));
+    }
+
+    @Test
+    public void roundTrips() {
+        Random random = new Random(1);
+        byte[] noise = new byte[30720];
+        random.nextBytes(noise);
+        byte[] zeros = new byte[61440];
+        byte[] short3 = { 1, 2, 3 };
+        byte[] mixed = new byte[40960];
+        for (int i = 0; i < mixed.length; i += 1 + random.nextInt(200)) {
+            Arrays.fill(mixed, i, Math.min(mixed.length, i + random.nextInt(300)), (byte)random.nextInt());
+        }
+        for (byte[] data : new byte[][]{ noise, zeros, short3, mixed, new byte[0] }) {
+            assertArrayEquals(data, FrameCodec.decompress(FrameCodec.compress(data)));
+        }
+        assertTrue(FrameCodec.compress(zeros).length < 2000);
+    }
+
+    @Test
+    public void decodesInPlace() {
+        byte[] data = new byte[1000];
+        Arrays.fill(data, 100, 900, (byte)7);
+        byte[] into = new byte[1010];
+        assertEquals(1000, FrameCodec.decompress(FrameCodec.compress(data), into, 10));
+        assertArrayEquals(data, Arrays.copyOfRange(into, 10, 1010));
+    }
+
+    @Test
+    public void rejectsCorruptData() {
+        byte[] packed = FrameCodec.compress(new byte[1000]);
+        for (byte[] bad : new byte[][]{
+                Arrays.copyOf(packed, packed.length - 1),
+                { 0, 0, 0, 8, (byte)0x81, 0, 1 }, // copies from before the start
+                { 0x7F, 0, 0, 0 } // huge length
+        }) {
+            try {
+                FrameCodec.decompress(bad);
+                fail("decoded corrupt data");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.venaglia.roger.ui.impl;
+
+import com.venaglia.roger.ui.ImageSerializer;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Dither;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Format;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Compares {@link RasterImageSerializer} with the original serializer for each format, on the image types the
+ * button faces and test images use.
+ */
+@State(Scope.Thread)
+public class ImageSerializerBenchmark {
+
+    @Param({ "RGB444", "RGB565", "RGB888" })
+    public Format format;
+
+    @Param({ "INT_ARGB", "4BYTE_ABGR" })
+    public String imageType;
+
+    @Param({ "NONE" }) // run with -p dither=BAYER,FLOYD_STEINBERG to measure dithering
+    public Dither dither;
+
+    private BufferedImage image;
+    private ImageSerializer original;
+    private RasterImageSerializer raster;
+    private byte[] reused;
+
+    @Setup
+    public void setUp() {
+        image = new BufferedImage(160, 128, "INT_ARGB".equals(imageType)
+                                            ? BufferedImage.TYPE_INT_ARGB
+                                            : BufferedImage.TYPE_4BYTE_ABGR);
+        Random random = new Random(1);
+        for (int y = 0; y < 128; y++) {
+            for (int x = 0; x < 160; x++) {
+                image.setRGB(x, y, random.nextInt() | 0xFF000000);
+            }
+        }
+        switch (format) {
+            case RGB444:
+                original = new ImageSerializer444();
+                break;
+            case RGB565:
+                original = new ImageSerializer565();
+                break;
+            default:
+                original = new ImageSerializer888();
+                break;
+        }
+        raster = new RasterImageSerializer(format, dither);
+        reused = new byte[format.getFrameSize()];
+    }
+
+    @Benchmark
+    public byte[] original() {
+        return original.serialize(image);
+    }
+
+    @Benchmark
+    public byte[] raster() {
+        return raster.serialize(image);
+    }
+
+    @Benchmark
+    public byte[] rasterReused() {
+        raster.serialize(image, reused, 0);
+        return reused;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ImageSerializerBenchmark.class.getSimpleName())
+                                       .forks(1)
+                                       .warmupIterations(5)
+                                       .measurementIterations(5)
+                                       .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.venaglia.roger.ui.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.venaglia.roger.ui.ImageSerializer;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Dither;
+import com.venaglia.roger.ui.impl.RasterImageSerializer.Format;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Checks that every path through {@link RasterImageSerializer} produces the same bytes as the original serializers,
+ * and that dithering keeps the average colour.
+ */
+public class RasterImageSerializerTest {
+
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_INT_BGR // read with getRGB
+    };
+
+    @Test
+    public void matches444() {
+        check(Format.RGB444, new ImageSerializer444());
+    }
+
+    @Test
+    public void matches565() {
+        check(Format.RGB565, new ImageSerializer565());
+    }
+
+    @Test
+    public void matches888() {
+        check(Format.RGB888, new ImageSerializer888());
+    }
+
+    @Test
+    public void subimageAndBuffer() {
+        BufferedImage large = randomImage(BufferedImage.TYPE_INT_ARGB, 200, 150);
+        BufferedImage sub = large.getSubimage(17, 9, 160, 128);
+        RasterImageSerializer serializer = new RasterImageSerializer(Format.RGB444);
+        byte[] expected = new ImageSerializer444().serialize(sub);
+        assertArrayEquals(expected, serializer.serialize(sub));
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+        buffer.position(3);
+        serializer.serialize(sub, buffer);
+        assertEquals(expected.length + 3, buffer.position());
+        byte[] actual = new byte[expected.length];
+        System.arraycopy(buffer.array(), 3, actual, 0, actual.length);
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void ditherKeepsAverage() {
+        BufferedImage gray = new BufferedImage(160, 128, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 128; y++) {
+            for (int x = 0; x < 160; x++) {
+                gray.setRGB(x, y, 0x5D5D5D); // 93, between the 4 bit levels for 85 and 102
+            }
+        }
+        assertEquals(102.0, averageRed444(new RasterImageSerializer(Format.RGB444, Dither.NONE).serialize(gray)), 0.01);
+        assertEquals(93.0, averageRed444(new RasterImageSerializer(Format.RGB444, Dither.BAYER).serialize(gray)), 1.0);
+        assertEquals(93.0, averageRed444(new RasterImageSerializer(Format.RGB444, Dither.FLOYD_STEINBERG).serialize(gray)), 1.0);
+    }
+
+    private static double averageRed444(byte[] data) {
+        long sum = 0;
+        for (int i = 0; i < data.length; i += 3) {
+            int pair = (data[i] & 0xFF) << 16 | (data[i + 1] & 0xFF) << 8 | data[i + 2] & 0xFF;
+            sum += (pair >> 12 & 0xF) * 17 + (pair & 0xF) * 17;
+        }
+        return sum / (data.length / 3 * 2.0);
+    }
+
+    private void check(Format format, ImageSerializer original) {
+        RasterImageSerializer serializer = new RasterImageSerializer(format);
+        for (int type : TYPES) {
+            BufferedImage image = randomImage(type, 160, 128);
+            byte[] expected = original.serialize(image);
+            assertEquals(format.getFrameSize(), expected.length);
+            assertArrayEquals("image type " + type, expected, serializer.serialize(image));
+        }
+    }
+
+    private static BufferedImage randomImage(int type, int width, int height) {
+        Random random = new Random(type);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt() | 0xFF000000);
+            }
+        }
+        return image;
+    }
+}